@@ -0,0 +1,11 @@
+package aads.bench;
+
+// Fixtures : Seeded benchmark instances from the solver's InstanceGenerator with its default shape
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    static byte[] instance(int viewpoints, long seed) throws Throwable {
+        return Solver.generateInstance(viewpoints, seed);
+    }
+}
@@ -0,0 +1,83 @@
+package aads.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// PhaseBenchmark : Each pipeline phase on its own, fed by the output of the phases before it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PhaseBenchmark {
+    @Param({"500", "2000", "5000"})
+    public int viewpoints;
+
+    private byte[] json;
+    private Object data;
+    private Map<?, ?> selected;
+    private Object tour;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        json = Fixtures.instance(viewpoints, 42);
+        data = Solver.parse(json);
+        selected = Solver.selectDirections(data);
+        tour = Solver.buildTour(data, selected, Solver.distanceOracle(data, "dense"), "--improve-ms=0");
+        // SolutionBuilder prints the document, keep it off the console
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public Object simpleJsonParser() throws Throwable {
+        return Solver.parseTree(json);
+    }
+
+    @Benchmark
+    public Object jsonParser() throws Throwable {
+        return Solver.parse(json);
+    }
+
+    @Benchmark
+    public double[][] buildDistanceMatrix() throws Throwable {
+        return Solver.buildDistanceMatrix(data);
+    }
+
+    @Benchmark
+    public double[][] buildDistanceMatrixParallel() throws Throwable {
+        return Solver.buildDistanceMatrixParallel(data);
+    }
+
+    @Benchmark
+    public Map<?, ?> selectDirections() throws Throwable {
+        return Solver.selectDirections(data);
+    }
+
+    @Benchmark
+    public void solutionBuilder() throws Throwable {
+        Solver.writeSolutionJson(tour, selected, 0.0);
+    }
+
+    @Benchmark
+    public void solutionWriter() throws Throwable {
+        Solver.writeSolution("/dev/null", tour, selected, 0.0);
+    }
+}
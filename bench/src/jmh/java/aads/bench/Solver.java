@@ -0,0 +1,156 @@
+package aads.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Solver : Entry points of the solver phases
+// The solver lives in the default package with package-private classes, which JMH cannot host,
+// so each phase is reached through a private method handle resolved once
+final class Solver {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodHandle GENERATE = staticMethod("InstanceGenerator", "generate",
+            byte[].class, int.class, long.class);
+    private static final MethodHandle NEW_READER = constructor("JsonReader", byte[].class);
+    private static final MethodHandle NEW_TREE_PARSER = constructor("SimpleJsonParser", type("JsonReader"));
+    private static final MethodHandle PARSE_VALUE = virtual("SimpleJsonParser", "parseValue", Object.class);
+    private static final MethodHandle PARSE = staticMethod("JsonParser", "parse", type("InputData"), type("JsonReader"));
+    private static final MethodHandle VIEWPOINTS = getter("InputData", "viewpoints", List.class);
+    private static final MethodHandle COLLISION_MATRIX = getter("InputData", "collisionMatrix", type("CollisionMatrix"));
+    private static final MethodHandle STORE = getter("InputData", "store", type("ViewpointStore"));
+    private static final MethodHandle COVERAGE = getter("InputData", "coverage", type("CoverageIndex"));
+    private static final MethodHandle DISTANCE_MATRIX = staticMethod("GraphUtil", "buildDistanceMatrix",
+            double[][].class, List.class, type("CollisionMatrix"));
+    private static final MethodHandle DISTANCE_MATRIX_PARALLEL = staticMethod("GraphUtil", "buildDistanceMatrixParallel",
+            double[][].class, List.class, type("CollisionMatrix"));
+    private static final MethodHandle DISTANCE_ORACLE = staticMethod("DistanceOracle", "of",
+            type("DistanceOracle"), String.class, List.class, type("CollisionMatrix"));
+    private static final MethodHandle SELECT_DIRECTIONS = staticMethod("DirectionSelector", "selectDirections",
+            Map.class, List.class, type("ViewpointStore"), type("CoverageIndex"));
+    private static final MethodHandle PARSE_CONFIG = staticMethod("SolverConfig", "parse",
+            type("SolverConfig"), String[].class);
+    private static final MethodHandle BUILD_TOUR = staticMethod("TourPlanner", "buildTour",
+            type("TourPlanner$TourResult"), List.class, java.util.Collection.class, List.class,
+            type("DistanceOracle"), type("SolverConfig"));
+    private static final MethodHandle TOUR = getter("TourPlanner$TourResult", "tour", List.class);
+    private static final MethodHandle WRITE_SOLUTION_JSON = staticMethod("SolutionBuilder", "writeSolutionJson",
+            void.class, String.class, type("TourPlanner$TourResult"), Map.class, double.class, int.class);
+    private static final MethodHandle WRITER_TO_FILE = staticMethod("SolutionWriter", "toFile",
+            type("SolutionWriter"), String.class);
+    private static final MethodHandle WRITER_WRITE = virtual("SolutionWriter", "write",
+            void.class, type("TourPlanner$TourResult"), Map.class, double.class, int.class);
+    private static final MethodHandle WRITER_CLOSE = virtual("SolutionWriter", "close", void.class);
+
+    private Solver() {
+    }
+
+    static byte[] generateInstance(int viewpoints, long seed) throws Throwable {
+        return (byte[]) GENERATE.invoke(viewpoints, seed);
+    }
+
+    static Object parseTree(byte[] json) throws Throwable {
+        return PARSE_VALUE.invoke(NEW_TREE_PARSER.invoke(NEW_READER.invoke(json)));
+    }
+
+    // Same decoder JsonParser.parseInput runs on standard input
+    static Object parse(byte[] json) throws Throwable {
+        return PARSE.invoke(NEW_READER.invoke(json));
+    }
+
+    static List<?> viewpoints(Object data) throws Throwable {
+        return (List<?>) VIEWPOINTS.invoke(data);
+    }
+
+    static double[][] buildDistanceMatrix(Object data) throws Throwable {
+        return (double[][]) DISTANCE_MATRIX.invoke(viewpoints(data), COLLISION_MATRIX.invoke(data));
+    }
+
+    static double[][] buildDistanceMatrixParallel(Object data) throws Throwable {
+        return (double[][]) DISTANCE_MATRIX_PARALLEL.invoke(viewpoints(data), COLLISION_MATRIX.invoke(data));
+    }
+
+    static Object distanceOracle(Object data, String kind) throws Throwable {
+        return DISTANCE_ORACLE.invoke(kind, viewpoints(data), COLLISION_MATRIX.invoke(data));
+    }
+
+    static Map<?, ?> selectDirections(Object data) throws Throwable {
+        return (Map<?, ?>) SELECT_DIRECTIONS.invoke(viewpoints(data), STORE.invoke(data), COVERAGE.invoke(data));
+    }
+
+    // Tour over the selected viewpoints, configured with command-line style options
+    static Object buildTour(Object data, Map<?, ?> selected, Object oracle, String... options) throws Throwable {
+        Object config = PARSE_CONFIG.invoke(options);
+        return BUILD_TOUR.invoke(viewpoints(data), selected.keySet(), new ArrayList<>(selected.keySet()), oracle, config);
+    }
+
+    static int tourSize(Object tour) throws Throwable {
+        return ((List<?>) TOUR.invoke(tour)).size();
+    }
+
+    // SolutionBuilder prints to System.out, which the caller redirects
+    static void writeSolutionJson(Object tour, Map<?, ?> selected, double precision) throws Throwable {
+        WRITE_SOLUTION_JSON.invoke("solution.json", tour, selected, precision, tourSize(tour));
+    }
+
+    static void writeSolution(String path, Object tour, Map<?, ?> selected, double precision) throws Throwable {
+        Object writer = WRITER_TO_FILE.invoke(path);
+        try {
+            WRITER_WRITE.invoke(writer, tour, selected, precision, tourSize(tour));
+        } finally {
+            WRITER_CLOSE.invoke(writer);
+        }
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Solver class not on the classpath: " + name, e);
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, LOOKUP);
+    }
+
+    private static MethodHandle constructor(String owner, Class<?>... params) {
+        try {
+            Class<?> c = type(owner);
+            return lookup(c).findConstructor(c, MethodType.methodType(void.class, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing constructor of " + owner, e);
+        }
+    }
+
+    private static MethodHandle staticMethod(String owner, String name, Class<?> ret, Class<?>... params) {
+        try {
+            Class<?> c = type(owner);
+            return lookup(c).findStatic(c, name, MethodType.methodType(ret, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing method " + owner + "." + name, e);
+        }
+    }
+
+    private static MethodHandle virtual(String owner, String name, Class<?> ret, Class<?>... params) {
+        try {
+            Class<?> c = type(owner);
+            return lookup(c).findVirtual(c, name, MethodType.methodType(ret, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing method " + owner + "." + name, e);
+        }
+    }
+
+    private static MethodHandle getter(String owner, String name, Class<?> type) {
+        try {
+            Class<?> c = type(owner);
+            return lookup(c).findGetter(c, name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing field " + owner + "." + name, e);
+        }
+    }
+}
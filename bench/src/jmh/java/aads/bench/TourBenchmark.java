@@ -0,0 +1,50 @@
+package aads.bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// TourBenchmark : TourPlanner.buildTour over a prebuilt distance oracle, with and without local search, per repair strategy
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TourBenchmark {
+    @Param({"500", "2000", "5000"})
+    public int viewpoints;
+
+    // Clock cap far above any local search run here, so that it stops on convergence or its step limit
+    private static final long UNCAPPED_MS = 3_600_000;
+
+    // false measures construction and repair alone; true adds local search, which then makes the same
+    // moves on every invocation instead of as many as a time budget allows
+    @Param({"false", "true"})
+    public boolean localSearch;
+
+    @Param({"shortest", "relay"})
+    public String repair;
+
+    private Object data;
+    private Map<?, ?> selected;
+    private Object oracle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        data = Solver.parse(Fixtures.instance(viewpoints, 42));
+        selected = Solver.selectDirections(data);
+        oracle = Solver.distanceOracle(data, "dense");
+    }
+
+    @Benchmark
+    public Object buildTour() throws Throwable {
+        return Solver.buildTour(data, selected, oracle, "--improve-ms=" + (localSearch ? UNCAPPED_MS : 0), "--repair=" + repair);
+    }
+}
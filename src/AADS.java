@@ -1,6 +1,70 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 // =============Data Structure==============
 // Viewpoint
@@ -13,8 +77,10 @@ class Viewpoint {
     boolean isMandatory;
     // Coordinates
     double x, y, z;
-    // Precision of different angles
+    // Precision of different angles (a view over the store once bound)
     Map<String, Double> precision;
+    // Columnar storage holding this viewpoint, null until bound
+    ViewpointStore store;
 
     // Constructor
     Viewpoint(String id, boolean isMandatory, double x, double y, double z, Map<String, Double> precision) {
@@ -27,6 +93,11 @@ class Viewpoint {
         this.precision = precision;
     }
 
+    // Precision of a direction ordinal, NaN if not available
+    double precision(int dir) {
+        return store.precision(index, dir);
+    }
+
     // toString
     @Override
     public String toString() {
@@ -118,891 +189,7203 @@ class SamplePoint {
     }
 }
 
-// InputData
-class InputData {
-    // Input data for the algorithm
-    List<Viewpoint> viewpoints;
-    List<SamplePoint> samplePoints;
-    List<Direction> directions;
-    int[][] collisionMatrix;
-    double lambda;
+// CollisionMatrix : Packed collision matrix (1 = feasible, -1 = blocked, anything else = 0)
+// Every row keeps two bitsets; while the matrix is symmetric only the upper triangle (j >= i) is stored
+class CollisionMatrix {
+    // Size of the matrix
+    final int n;
+    // Upper triangle: bit k of row i is column i + k
+    private final long[][] upperFeasible;
+    private final long[][] upperBlocked;
+    // Lower triangle: bit k of row i is column k, null while the matrix is symmetric
+    private long[][] lowerFeasible;
+    private long[][] lowerBlocked;
+    // Cached answer of hasFreeEdges, null until asked and after every change
+    private Boolean freeEdges;
 
     // Constructor
-    InputData(List<Viewpoint> viewpoints, List<SamplePoint> samplePoints,
-              List<Direction> directions, int[][] collisionMatrix, double lambda) {
-        this.viewpoints = viewpoints;
-        this.samplePoints = samplePoints;
-        this.directions = directions;
-        this.collisionMatrix = collisionMatrix;
-        this.lambda = lambda;
+    private CollisionMatrix(int n) {
+        this.n = n;
+        this.upperFeasible = new long[n][];
+        this.upperBlocked = new long[n][];
     }
-}
 
-// =============Tool/Functional Class==============
-// SimpleJsonParser
-class SimpleJsonParser {
-    private final String text;
-    private int index = 0;
+    // Pack a dense matrix
+    static CollisionMatrix fromArray(int[][] matrix) {
+        Builder builder = new Builder();
+        for (int[] row : matrix) {
+            builder.addRow(row, row.length);
+        }
+        return builder.build();
+    }
 
-    // Constructor
-    SimpleJsonParser(String text) {
-        this.text = text;
+    // Number of longs for a bitset of the given length
+    static int words(int bits) {
+        return (bits + 63) >>> 6;
     }
 
-    // Read Json File From Stdin
-    static Object parseFromInput() throws IOException {
-        String text = new String(System.in.readAllBytes(), StandardCharsets.UTF_8);
-        SimpleJsonParser parser = new SimpleJsonParser(text);
-        return parser.parseValue();
+    int size() {
+        return n;
     }
 
-    // Main Method
-    Object parseValue() {
-        skipWhitespace();
-        char c = text.charAt(index);
-        if (c == '{') return parseObject();
-        if (c == '[') return parseArray();
-        if (c == '"') return parseString();
-        if (c == '-' || Character.isDigit(c)) return parseNumber();
-        if (text.startsWith("true", index)) {
-            index += 4;
-            return Boolean.TRUE;
-        }
-        if (text.startsWith("false", index)) {
-            index += 5;
-            return Boolean.FALSE;
-        }
-        if (text.startsWith("null", index)) {
-            index += 4;
-            return null;
+    // Whether only the upper triangle is stored
+    boolean isSymmetric() {
+        return lowerFeasible == null;
+    }
+
+    // Value at (i, j): 1, -1 or 0
+    int get(int i, int j) {
+        if (testBit(i, j, true)) return 1;
+        if (testBit(i, j, false)) return -1;
+        return 0;
+    }
+
+    // (i, j) == 1
+    boolean isFeasible(int i, int j) {
+        return testBit(i, j, true);
+    }
+
+    // (i, j) == -1
+    boolean isBlocked(int i, int j) {
+        return testBit(i, j, false);
+    }
+
+    // Set (i, j) and (j, i) to value (1 = feasible, -1 = blocked, anything else = 0)
+    void set(int i, int j, int value) {
+        put(i, j, value);
+        put(j, i, value);
+        freeEdges = null;
+    }
+
+    // Whether some (i, j) with i < j is 0. Distances read the upper triangle and score 0 as a 0.0 edge,
+    // shorter than the Euclidean distance that geometric searches prune with
+    boolean hasFreeEdges() {
+        if (freeEdges == null) {
+            boolean free = false;
+            for (int i = 0; i < n && !free; i++) {
+                // Bits 1..n-1-i of the upper row are the columns right of the diagonal
+                int set = 0;
+                for (int w = 0; w < upperFeasible[i].length; w++) {
+                    set += Long.bitCount(upperFeasible[i][w] | upperBlocked[i][w]);
+                }
+                if (((upperFeasible[i][0] | upperBlocked[i][0]) & 1L) != 0) {
+                    set--;
+                }
+                free = set < n - 1 - i;
+            }
+            freeEdges = free;
         }
-        throw new RuntimeException("Unexpected character at " + index + ": " + c);
+        return freeEdges;
     }
 
-    // Parse Object
-    Map<String, Object> parseObject() {
-        Map<String, Object> map = new LinkedHashMap<>();
-        index++; // skip '{'
-        skipWhitespace();
-        if (text.charAt(index) == '}') {
-            index++;
-            return map;
+    private void put(int i, int j, int value) {
+        long[] f, b;
+        int bit;
+        if (j >= i) {
+            f = upperFeasible[i];
+            b = upperBlocked[i];
+            bit = j - i;
+        } else if (lowerFeasible != null) {
+            f = lowerFeasible[i];
+            b = lowerBlocked[i];
+            bit = j;
+        } else {
+            f = upperFeasible[j];
+            b = upperBlocked[j];
+            bit = i - j;
         }
-        while (true) {
-            skipWhitespace();
-            String key = parseString();
-            skipWhitespace();
-            if (text.charAt(index) != ':')
-                throw new RuntimeException("Expected ':' at " + index);
-            index++; // skip ':'
-            Object value = parseValue();
-            map.put(key, value);
-            skipWhitespace();
-            char c = text.charAt(index);
-            if (c == '}') {
-                index++;
-                break;
-            }
-            if (c == ',') {
-                index++;
-                continue;
-            }
-            throw new RuntimeException("Expected ',' or '}' at " + index);
+        long mask = 1L << bit;
+        f[bit >>> 6] = value == 1 ? f[bit >>> 6] | mask : f[bit >>> 6] & ~mask;
+        b[bit >>> 6] = value == -1 ? b[bit >>> 6] | mask : b[bit >>> 6] & ~mask;
+    }
+
+    // Fill out with the columns j where (i, j) == 1, out needs words(n) longs
+    void feasibleRow(int i, long[] out) {
+        row(i, out, true);
+    }
+
+    // Fill out with the columns j where (i, j) == -1, out needs words(n) longs
+    void blockedRow(int i, long[] out) {
+        row(i, out, false);
+    }
+
+    // Like feasibleRow, but columns j < i read (j, i) so the row mirrors the upper triangle
+    void mirroredFeasibleRow(int i, long[] out) {
+        mirroredRow(i, out, true);
+    }
+
+    // Like blockedRow, but columns j < i read (j, i) so the row mirrors the upper triangle
+    void mirroredBlockedRow(int i, long[] out) {
+        mirroredRow(i, out, false);
+    }
+
+    private boolean testBit(int i, int j, boolean feasible) {
+        long[] bits;
+        int bit;
+        if (j >= i) {
+            bits = feasible ? upperFeasible[i] : upperBlocked[i];
+            bit = j - i;
+        } else if (lowerFeasible != null) {
+            bits = feasible ? lowerFeasible[i] : lowerBlocked[i];
+            bit = j;
+        } else {
+            bits = feasible ? upperFeasible[j] : upperBlocked[j];
+            bit = i - j;
         }
-        return map;
+        return (bits[bit >>> 6] & (1L << bit)) != 0;
     }
 
-    // Parse Array
-    List<Object> parseArray() {
-        List<Object> list = new ArrayList<>();
-        index++; // skip '['
-        skipWhitespace();
-        if (text.charAt(index) == ']') {
-            index++;
-            return list;
+    private void row(int i, long[] out, boolean feasible) {
+        if (lowerFeasible == null) {
+            mirroredRow(i, out, feasible);
+            return;
         }
-        while (true) {
-            Object val = parseValue();
-            list.add(val);
-            skipWhitespace();
-            char c = text.charAt(index);
-            if (c == ']') {
-                index++;
-                break;
-            }
-            if (c == ',') {
-                index++;
-                continue;
-            }
-            throw new RuntimeException("Expected ',' or ']' at " + index);
+        Arrays.fill(out, 0, words(n), 0L);
+        // Columns i..n-1 come from the upper row, columns 0..i-1 from the lower row
+        orShifted(feasible ? upperFeasible[i] : upperBlocked[i], n - i, out, i);
+        long[] lower = feasible ? lowerFeasible[i] : lowerBlocked[i];
+        for (int w = 0; w < lower.length; w++) {
+            out[w] |= lower[w];
         }
-        return list;
     }
 
-    // Parse String
-    String parseString() {
-        StringBuilder sb = new StringBuilder();
-        index++; // skip '"'
-        while (index < text.length()) {
-            char c = text.charAt(index++);
-            if (c == '\\') {
-                char next = text.charAt(index++);
-                if (next == '"' || next == '\\' || next == '/') sb.append(next);
-                else if (next == 'b') sb.append('\b');
-                else if (next == 'f') sb.append('\f');
-                else if (next == 'n') sb.append('\n');
-                else if (next == 'r') sb.append('\r');
-                else if (next == 't') sb.append('\t');
-            } else if (c == '"') {
-                break;
-            } else {
-                sb.append(c);
+    private void mirroredRow(int i, long[] out, boolean feasible) {
+        Arrays.fill(out, 0, words(n), 0L);
+        // Columns i..n-1 come from the upper row, columns 0..i-1 from the transposed upper rows
+        orShifted(feasible ? upperFeasible[i] : upperBlocked[i], n - i, out, i);
+        long[][] rows = feasible ? upperFeasible : upperBlocked;
+        for (int j = 0; j < i; j++) {
+            int bit = i - j;
+            if ((rows[j][bit >>> 6] & (1L << bit)) != 0) {
+                out[j >>> 6] |= 1L << j;
             }
         }
-        return sb.toString();
     }
 
-    // Parse Number
-    Double parseNumber() {
-        int start = index;
-        while (index < text.length() &&
-                ("0123456789+-.eE".indexOf(text.charAt(index)) >= 0)) {
-            index++;
+    // OR bits [0, len) of src into dst starting at bit offset
+    private static void orShifted(long[] src, int len, long[] dst, int offset) {
+        int shift = offset & 63;
+        int base = offset >>> 6;
+        int count = words(len);
+        for (int k = 0; k < count; k++) {
+            long w = src[k];
+            if (w == 0) {
+                continue;
+            }
+            dst[base + k] |= w << shift;
+            if (shift != 0 && base + k + 1 < dst.length) {
+                dst[base + k + 1] |= w >>> (64 - shift);
+            }
         }
-        return Double.valueOf(text.substring(start, index));
     }
 
-    // Skip Whitespace
-    void skipWhitespace() {
-        while (index < text.length()) {
-            char c = text.charAt(index);
-            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') index++;
-            else break;
+    // Start storing the lower triangle, rows below `rows` are rebuilt from their transposes
+    private void splitLower(int rows) {
+        lowerFeasible = new long[n][];
+        lowerBlocked = new long[n][];
+        for (int i = 0; i < rows; i++) {
+            long[] f = new long[words(i)];
+            long[] b = new long[words(i)];
+            for (int j = 0; j < i; j++) {
+                int bit = i - j;
+                long mask = 1L << bit;
+                if ((upperFeasible[j][bit >>> 6] & mask) != 0) f[j >>> 6] |= 1L << j;
+                if ((upperBlocked[j][bit >>> 6] & mask) != 0) b[j >>> 6] |= 1L << j;
+            }
+            lowerFeasible[i] = f;
+            lowerBlocked[i] = b;
         }
     }
-}
 
-// JsonParser : Convert Json to InputData
-class JsonParser {
-    @SuppressWarnings("unchecked")
-    static InputData parseInput() throws Exception {
-        // Get Json Object
-        Object rootObj = SimpleJsonParser.parseFromInput();
-        if (!(rootObj instanceof Map)) {
-            throw new RuntimeException("Root JSON must be an object");
+    // Write the packed rows to a snapshot: upper triangle, then the lower one if stored
+    void writeTo(InstanceSnapshot.Output out) throws IOException {
+        for (int i = 0; i < n; i++) {
+            out.putLongs(upperFeasible[i]);
+            out.putLongs(upperBlocked[i]);
         }
-        Map<String, Object> root = (Map<String, Object>) rootObj;
-
-        // Get Lambda
-        Map<String, Object> metadata = (Map<String, Object>) root.get("metadata");
-        double lambda = ((Number) metadata.get("lambda")).doubleValue();
-
-        // Get Directions
-        List<Object> dirArray = (List<Object>) root.get("directions");
-        List<Direction> directions = new ArrayList<>();
-        for (int i = 0; i < dirArray.size(); i++) {
-            List<Object> vec = (List<Object>) dirArray.get(i);
-            String id = "a" + (i + 1);
-            double x = ((Number) vec.get(0)).doubleValue();
-            double y = ((Number) vec.get(1)).doubleValue();
-            double z = ((Number) vec.get(2)).doubleValue();
-            directions.add(new Direction(id, x, y, z));
+        if (lowerFeasible != null) {
+            for (int i = 0; i < n; i++) {
+                out.putLongs(lowerFeasible[i]);
+                out.putLongs(lowerBlocked[i]);
+            }
         }
+    }
 
-        // Get Viewpoints
-        List<Object> vpArray = (List<Object>) root.get("viewpoints");
-        List<Viewpoint> viewpoints = new ArrayList<>();
-
-        for (Object vo : vpArray) {
-            Map<String, Object> v = (Map<String, Object>) vo;
-            String id = (String) v.get("id");
-            boolean isMandatory = Boolean.TRUE.equals(v.get("is_mandatory"));
-            Map<String, Object> coords = (Map<String, Object>) v.get("coordinates");
-            double x = ((Number) coords.get("x")).doubleValue();
-            double y = ((Number) coords.get("y")).doubleValue();
-            double z = ((Number) coords.get("z")).doubleValue();
-            Map<String, Double> precision = new HashMap<>();
-            Map<String, Object> prec = (Map<String, Object>) v.get("precision");
-            for (Map.Entry<String, Object> e : prec.entrySet()) {
-                precision.put(e.getKey(), ((Number) e.getValue()).doubleValue());
+    // Read the rows written by writeTo
+    static CollisionMatrix readFrom(InstanceSnapshot.Input in, int n, boolean symmetric) throws IOException {
+        CollisionMatrix matrix = new CollisionMatrix(n);
+        for (int i = 0; i < n; i++) {
+            matrix.upperFeasible[i] = in.getLongs(words(n - i));
+            matrix.upperBlocked[i] = in.getLongs(words(n - i));
+        }
+        if (!symmetric) {
+            matrix.lowerFeasible = new long[n][];
+            matrix.lowerBlocked = new long[n][];
+            for (int i = 0; i < n; i++) {
+                matrix.lowerFeasible[i] = in.getLongs(words(i));
+                matrix.lowerBlocked[i] = in.getLongs(words(i));
             }
-            viewpoints.add(new Viewpoint(id, isMandatory, x, y, z, precision));
         }
+        return matrix;
+    }
 
-        // Get SamplePoints
-        List<Object> sArray = (List<Object>) root.get("sample_points");
-        List<SamplePoint> samples = new ArrayList<>();
-
-        for (Object so : sArray) {
-            Map<String, Object> s = (Map<String, Object>) so;
-            String id = (String) s.get("id");
+    // Builder : Receive rows in order, checking symmetry on the fly
+    static class Builder {
+        private CollisionMatrix matrix;
+        private int rows;
 
-            Map<String, Object> coords = (Map<String, Object>) s.get("coordinates");
-            double x = ((Number) coords.get("x")).doubleValue();
-            double y = ((Number) coords.get("y")).doubleValue();
-            double z = ((Number) coords.get("z")).doubleValue();
+        // Append the next row, values[0..len)
+        void addRow(int[] values, int len) {
+            if (matrix == null) {
+                matrix = new CollisionMatrix(len);
+            }
+            int n = matrix.n;
+            if (len != n || rows == n) {
+                throw new RuntimeException("collision_matrix is not square: row " + rows + " has " + len + " entries");
+            }
+            int i = rows++;
+            long[] f = new long[words(n - i)];
+            long[] b = new long[words(n - i)];
+            for (int j = i; j < n; j++) {
+                int bit = j - i;
+                if (values[j] == 1) f[bit >>> 6] |= 1L << bit;
+                else if (values[j] == -1) b[bit >>> 6] |= 1L << bit;
+            }
+            matrix.upperFeasible[i] = f;
+            matrix.upperBlocked[i] = b;
 
-            SamplePoint sp = new SamplePoint(id, x, y, z);
-            List<Object> pairs = (List<Object>) s.get("covering_pairs");
-            for (Object p : pairs) {
-                List<Object> arr = (List<Object>) p;
-                String vpId = (String) arr.get(0);
-                String angleId = (String) arr.get(1);
-                sp.addCoveringPair(vpId, angleId);
+            // Drop the lower part as long as it mirrors the upper triangle
+            if (matrix.lowerFeasible == null) {
+                for (int j = 0; j < i; j++) {
+                    if (normalize(values[j]) != matrix.get(j, i)) {
+                        matrix.splitLower(i);
+                        break;
+                    }
+                }
+            }
+            if (matrix.lowerFeasible != null) {
+                long[] lf = new long[words(i)];
+                long[] lb = new long[words(i)];
+                for (int j = 0; j < i; j++) {
+                    if (values[j] == 1) lf[j >>> 6] |= 1L << j;
+                    else if (values[j] == -1) lb[j >>> 6] |= 1L << j;
+                }
+                matrix.lowerFeasible[i] = lf;
+                matrix.lowerBlocked[i] = lb;
             }
-            samples.add(sp);
         }
 
-        // Get Collision_matrix
-        List<Object> cArray = (List<Object>) root.get("collision_matrix");
-        int n = cArray.size();
-        int[][] matrix = new int[n][n];
-        for (int i = 0; i < n; i++) {
-            List<Object> row = (List<Object>) cArray.get(i);
-            for (int j = 0; j < row.size(); j++) {
-                matrix[i][j] = ((Number) row.get(j)).intValue();
+        CollisionMatrix build() {
+            if (matrix == null) {
+                return new CollisionMatrix(0);
+            }
+            if (rows != matrix.n) {
+                throw new RuntimeException("collision_matrix is not square: " + rows + " rows of " + matrix.n);
             }
+            return matrix;
         }
 
-        //  Construct InputData
-        return new InputData(viewpoints, samples, directions, matrix, lambda);
+        private static int normalize(int v) {
+            return v == 1 || v == -1 ? v : 0;
+        }
     }
 }
 
-// GraphUtil : Graph related functions
-class GraphUtil {
-    // Check if the matrix is symmetric
-    static boolean isSymmetric(int[][] matrix) {
-        int n = matrix.length;
-        for (int i = 0; i < n; i++) {
-            for (int j = i + 1; j < n; j++) {
-                if (matrix[i][j] != matrix[j][i]) {
-                    System.err.printf("⚠️ 矩阵不对称: [%d][%d]=%d, [%d][%d]=%d%n",
-                            i, j, matrix[i][j], j, i, matrix[j][i]);
-                    return false;
+// ViewpointStore : Columnar storage of all viewpoints, indexed by Viewpoint.index
+class ViewpointStore {
+    // Number of viewpoint slots
+    final int size;
+    // Viewpoint index -> id
+    final String[] viewpointIds;
+    // Direction ordinal -> id
+    final String[] directionIds;
+    private final Map<String, Integer> directionOrdinals = new HashMap<>();
+    // Coordinates
+    final double[] xs, ys, zs;
+    // Mandatory flags as a bitset
+    final long[] mandatory;
+    // Precision of (viewpoint, direction) at [index * numDirections + ordinal], NaN when not available
+    final double[] precision;
+
+    // Constructor
+    ViewpointStore(int size, String[] directionIds) {
+        this.size = size;
+        this.viewpointIds = new String[size];
+        this.directionIds = directionIds;
+        for (int d = 0; d < directionIds.length; d++) {
+            directionOrdinals.put(directionIds[d], d);
+        }
+        this.xs = new double[size];
+        this.ys = new double[size];
+        this.zs = new double[size];
+        this.mandatory = new long[CollisionMatrix.words(size)];
+        this.precision = new double[size * directionIds.length];
+        Arrays.fill(precision, Double.NaN);
+    }
+
+    // Build a store from standalone viewpoints and turn them into views
+    static ViewpointStore of(List<Viewpoint> vps, List<Direction> dirs) {
+        LinkedHashSet<String> ids = new LinkedHashSet<>();
+        for (Direction d : dirs) {
+            ids.add(d.Id);
+        }
+        int size = 0;
+        for (Viewpoint vp : vps) {
+            size = Math.max(size, vp.index + 1);
+            if (vp.precision != null) {
+                ids.addAll(vp.precision.keySet());
+            }
+        }
+        ViewpointStore store = new ViewpointStore(size, ids.toArray(new String[0]));
+        for (Viewpoint vp : vps) {
+            store.set(vp.index, vp.x, vp.y, vp.z, vp.isMandatory);
+            if (vp.precision != null) {
+                for (Map.Entry<String, Double> e : vp.precision.entrySet()) {
+                    store.setPrecision(vp.index, store.directionOrdinal(e.getKey()), e.getValue());
                 }
             }
+            store.bind(vp);
         }
-        return true;
+        return store;
     }
 
-    // Calculate the Euclidean distance between two viewpoints
-    static double euclideanDistance(Viewpoint a, Viewpoint b) {
-        double dx = a.x - b.x;
-        double dy = a.y - b.y;
-        double dz = a.z - b.z;
-        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    int numDirections() {
+        return directionIds.length;
     }
 
-    // Construct the distance matrix from the collision matrix
-    static double[][] buildDistanceMatrix(List<Viewpoint> vps, int[][] collisionMatrix) {
-        int n = vps.size();
-        double[][] dist = new double[n][n];
+    // Ordinal of a direction id, -1 if unknown
+    int directionOrdinal(String dirId) {
+        Integer d = directionOrdinals.get(dirId);
+        return d == null ? -1 : d;
+    }
 
-        for (int i = 0; i < n; i++) {
-            dist[i][i] = 0.0;
-            Viewpoint vi = vps.get(i);
-            for (int j = i + 1; j < n; j++) {
-                int val = collisionMatrix[i][j];
-                double d;
-                if (val == 1) {
-                    d = euclideanDistance(vi, vps.get(j));
-                } else if (val == -1) {
-                    d = Double.POSITIVE_INFINITY;
-                } else {
-                    d = 0.0;
+    void set(int vp, double x, double y, double z, boolean isMandatory) {
+        xs[vp] = x;
+        ys[vp] = y;
+        zs[vp] = z;
+        if (isMandatory) mandatory[vp >>> 6] |= 1L << vp;
+        else mandatory[vp >>> 6] &= ~(1L << vp);
+    }
+
+    boolean isMandatory(int vp) {
+        return (mandatory[vp >>> 6] & (1L << vp)) != 0;
+    }
+
+    void setPrecision(int vp, int dir, double value) {
+        precision[vp * directionIds.length + dir] = value;
+    }
+
+    // Precision of (viewpoint, direction ordinal), NaN if not available
+    double precision(int vp, int dir) {
+        return dir < 0 ? Double.NaN : precision[vp * directionIds.length + dir];
+    }
+
+    // Precision of (viewpoint, direction id), NaN if not available
+    double precision(int vp, String dirId) {
+        return precision(vp, directionOrdinal(dirId));
+    }
+
+    // Make vp a view over this store
+    void bind(Viewpoint vp) {
+        viewpointIds[vp.index] = vp.id;
+        vp.store = this;
+        vp.precision = new PrecisionView(this, vp.index);
+    }
+
+    // PrecisionView : Read-only Map<String, Double> over one row of the precision table
+    static class PrecisionView extends AbstractMap<String, Double> {
+        private final ViewpointStore store;
+        private final int vp;
+
+        PrecisionView(ViewpointStore store, int vp) {
+            this.store = store;
+            this.vp = vp;
+        }
+
+        @Override
+        public Double get(Object key) {
+            if (!(key instanceof String)) return null;
+            double p = store.precision(vp, (String) key);
+            return Double.isNaN(p) ? null : p;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && !Double.isNaN(store.precision(vp, (String) key));
+        }
+
+        @Override
+        public Set<Entry<String, Double>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Double>> iterator() {
+                    return new Iterator<>() {
+                        private int next = advance(0);
+
+                        private int advance(int d) {
+                            while (d < store.numDirections() && Double.isNaN(store.precision(vp, d))) d++;
+                            return d;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < store.numDirections();
+                        }
+
+                        @Override
+                        public Entry<String, Double> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            int d = next;
+                            next = advance(d + 1);
+                            return new SimpleImmutableEntry<>(store.directionIds[d], store.precision(vp, d));
+                        }
+                    };
                 }
-                dist[i][j] = dist[j][i] = d;
-            }
+
+                @Override
+                public int size() {
+                    int count = 0;
+                    for (int d = 0; d < store.numDirections(); d++) {
+                        if (!Double.isNaN(store.precision(vp, d))) count++;
+                    }
+                    return count;
+                }
+            };
         }
-        return dist;
     }
 }
 
-// SolutionBuilder : Build the solution
-class SolutionBuilder {
-    public static void writeSolutionJson(
-            String outputPath,
-            TourPlanner.TourResult tourResult,
-            Map<Viewpoint, Set<String>> selected,
-            double precisionValue,
-            int numViewpoints
-    ) {
+// CoverageIndex : Covering pairs as int ids in compressed sparse rows, in both directions
+// A pair id is viewpointIndex * numDirections + directionOrdinal
+class CoverageIndex {
+    final int numSamples;
+    final int numDirections;
+    final int numPairs;
+    // Pairs of sample s: samplePairs[sampleStart[s] .. sampleStart[s + 1]), in input order
+    final int[] sampleStart;
+    final int[] samplePairs;
+    // Samples covered by pair p: pairSamples[pairStart[p] .. pairStart[p + 1]), ascending and distinct
+    final int[] pairStart;
+    final int[] pairSamples;
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\n");
+    // Constructor: transpose sample -> pairs into pair -> samples
+    CoverageIndex(int numViewpoints, int numDirections, int[] sampleStart, int[] samplePairs) {
+        this.numSamples = sampleStart.length - 1;
+        this.numDirections = numDirections;
+        this.numPairs = numViewpoints * numDirections;
+        this.sampleStart = sampleStart;
+        this.samplePairs = samplePairs;
 
-        // ===== metadata =====
-        sb.append("  \"metadata\": {\n");
-        sb.append("    \"num_viewpoints\": ").append(numViewpoints).append(",\n");
-        sb.append("    \"objective\": {\n");
-        sb.append("      \"distance\": ").append(tourResult.totalDistance).append(",\n");
-        sb.append("      \"precision\": ").append(precisionValue).append("\n");
-        sb.append("    }\n");
-        sb.append("  },\n");
+        // Count each (pair, sample) once, duplicated pairs inside a sample are adjacent per pair
+        int[] last = new int[numPairs];
+        Arrays.fill(last, -1);
+        int[] start = new int[numPairs + 1];
+        for (int s = 0; s < numSamples; s++) {
+            for (int k = sampleStart[s]; k < sampleStart[s + 1]; k++) {
+                int p = samplePairs[k];
+                if (last[p] != s) {
+                    last[p] = s;
+                    start[p + 1]++;
+                }
+            }
+        }
+        for (int p = 0; p < numPairs; p++) {
+            start[p + 1] += start[p];
+        }
+        int[] samplesOf = new int[start[numPairs]];
+        int[] cursor = Arrays.copyOf(start, numPairs);
+        Arrays.fill(last, -1);
+        for (int s = 0; s < numSamples; s++) {
+            for (int k = sampleStart[s]; k < sampleStart[s + 1]; k++) {
+                int p = samplePairs[k];
+                if (last[p] != s) {
+                    last[p] = s;
+                    samplesOf[cursor[p]++] = s;
+                }
+            }
+        }
+        this.pairStart = start;
+        this.pairSamples = samplesOf;
+    }
 
-        // ===== sequence =====
-        sb.append("  \"sequence\": [\n");
-        List<Viewpoint> seq = tourResult.tour;
-        for (int i = 0; i < seq.size(); i++) {
-            Viewpoint vp = seq.get(i);
-            sb.append("    {\n");
-            sb.append("      \"id\": \"").append(vp.id).append("\",\n");
-            sb.append("      \"angles\": [");
-            Set<String> angles = selected.get(vp);
-            if (angles != null && !angles.isEmpty()) {
-                int c = 0;
-                for (String a : angles) {
-                    if (c > 0) sb.append(", ");
-                    sb.append("\"").append(a).append("\"");
-                    c++;
+    // Constructor: both directions already built, e.g. read from a snapshot
+    CoverageIndex(int numViewpoints, int numDirections, int[] sampleStart, int[] samplePairs,
+                  int[] pairStart, int[] pairSamples) {
+        this.numSamples = sampleStart.length - 1;
+        this.numDirections = numDirections;
+        this.numPairs = numViewpoints * numDirections;
+        this.sampleStart = sampleStart;
+        this.samplePairs = samplePairs;
+        this.pairStart = pairStart;
+        this.pairSamples = pairSamples;
+    }
+
+    // Build from sample points with string covering pairs, unknown viewpoints/directions are dropped
+    static CoverageIndex of(List<SamplePoint> samples, ViewpointStore store) {
+        Map<String, Integer> vpIndex = new HashMap<>();
+        for (int i = 0; i < store.size; i++) {
+            if (store.viewpointIds[i] != null) {
+                vpIndex.put(store.viewpointIds[i], i);
+            }
+        }
+        int[] start = new int[samples.size() + 1];
+        int[] pairs = new int[16];
+        int count = 0;
+        for (int s = 0; s < samples.size(); s++) {
+            List<CoveringPair> cps = samples.get(s).coveringPairs;
+            if (cps != null) {
+                for (CoveringPair cp : cps) {
+                    Integer vp = vpIndex.get(cp.viewpointId);
+                    int dir = store.directionOrdinal(cp.directionId);
+                    if (vp == null || dir < 0) {
+                        continue;
+                    }
+                    if (count == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, count * 2);
+                    }
+                    pairs[count++] = vp * store.numDirections() + dir;
                 }
             }
-            sb.append("]\n");
-            sb.append("    }");
-            if (i != seq.size() - 1) sb.append(",");
-            sb.append("\n");
+            start[s + 1] = count;
         }
-        sb.append("  ]\n");
-        sb.append("}\n");
-        // Write to file (Only for Debugging)
-        // try (FileWriter fw = new FileWriter(outputPath, false)) {
-        //     //fw.write(sb.toString());
-        //     System.out.println(sb.toString());
-        // }
-        // Print result to stdout
-        System.out.println(sb);
+        return new CoverageIndex(store.size, store.numDirections(), start, Arrays.copyOf(pairs, count));
     }
-}
 
-// TimerUtil : Count the execution time
-class TimerUtil {
-    private long startTime;
-    private long originTime;
+    int pairId(int vp, int dir) {
+        return vp * numDirections + dir;
+    }
 
-    void start() {
-        startTime = System.currentTimeMillis();
-        originTime = startTime;
+    int viewpointOf(int pair) {
+        return pair / numDirections;
     }
 
-    void printElapsed(String msg) {
-        long now = System.currentTimeMillis();
-        System.err.println(msg + " Cost: " + (now - startTime) + " ms" + "; Total: " + (now - originTime) + " ms)");
-        startTime = now;
+    int directionOf(int pair) {
+        return pair % numDirections;
     }
-}
 
-// CoverageChecker : Check the coverage of the solution
-class CoverageChecker {
-    // Check if the selected directions are valid
-    static void checkSelectedDirectionsValid(Map<Viewpoint, Set<String>> selected) {
-        int totalVp = selected.size();
-        int totalDirs = 0;
-        int invalidInPrecision = 0;
-        for (Map.Entry<Viewpoint, Set<String>> entry : selected.entrySet()) {
-            Viewpoint vp = entry.getKey();
+    // Number of distinct samples a pair covers
+    int coverCount(int pair) {
+        return pairStart[pair + 1] - pairStart[pair];
+    }
+
+    // Number of covering pairs of a sample
+    int pairCount(int sample) {
+        return sampleStart[sample + 1] - sampleStart[sample];
+    }
+
+    // Make the covering pairs of the samples views over this index
+    void bind(List<SamplePoint> samples, ViewpointStore store) {
+        for (int s = 0; s < samples.size(); s++) {
+            samples.get(s).coveringPairs = new CoveringPairView(this, store, s);
+        }
+    }
+
+    // CoveringPairView : Read-only List<CoveringPair> over one sample row
+    static class CoveringPairView extends AbstractList<CoveringPair> {
+        private final CoverageIndex index;
+        private final ViewpointStore store;
+        private final int sample;
+
+        CoveringPairView(CoverageIndex index, ViewpointStore store, int sample) {
+            this.index = index;
+            this.store = store;
+            this.sample = sample;
+        }
+
+        @Override
+        public CoveringPair get(int k) {
+            int pair = index.samplePairs[index.sampleStart[sample] + Objects.checkIndex(k, size())];
+            return new CoveringPair(store.viewpointIds[index.viewpointOf(pair)], store.directionIds[index.directionOf(pair)]);
+        }
+
+        @Override
+        public int size() {
+            return index.pairCount(sample);
+        }
+    }
+}
+
+// InputData
+class InputData {
+    // Input data for the algorithm
+    List<Viewpoint> viewpoints;
+    List<SamplePoint> samplePoints;
+    List<Direction> directions;
+    CollisionMatrix collisionMatrix;
+    double lambda;
+    // Columnar view of the viewpoints
+    ViewpointStore store;
+    // Covering pairs as int CSR arrays
+    CoverageIndex coverage;
+    // SHA-256 of the source JSON, null unless something needed it
+    byte[] sourceHash;
+
+    // Constructor
+    InputData(List<Viewpoint> viewpoints, List<SamplePoint> samplePoints,
+              List<Direction> directions, CollisionMatrix collisionMatrix, double lambda) {
+        this(viewpoints, samplePoints, directions, collisionMatrix, lambda, ViewpointStore.of(viewpoints, directions));
+    }
+
+    private InputData(List<Viewpoint> viewpoints, List<SamplePoint> samplePoints,
+                      List<Direction> directions, CollisionMatrix collisionMatrix, double lambda, ViewpointStore store) {
+        this(viewpoints, samplePoints, directions, collisionMatrix, lambda, store, CoverageIndex.of(samplePoints, store));
+    }
+
+    InputData(List<Viewpoint> viewpoints, List<SamplePoint> samplePoints,
+              List<Direction> directions, CollisionMatrix collisionMatrix, double lambda,
+              ViewpointStore store, CoverageIndex coverage) {
+        this.viewpoints = viewpoints;
+        this.samplePoints = samplePoints;
+        this.directions = directions;
+        this.collisionMatrix = collisionMatrix;
+        this.lambda = lambda;
+        this.store = store;
+        this.coverage = coverage;
+    }
+}
+
+// InstanceSnapshot : Binary image of a parsed instance, so that reruns skip the JSON
+// Little-endian sections in a fixed order: header (with the SHA-256 of the source JSON), directions,
+// viewpoints with the dense precision table, samples with both CSR directions, the packed collision matrix.
+// Reading maps the file window by window and bulk-copies every section into the solver's arrays.
+class InstanceSnapshot {
+    private static final long MAGIC = 0x50414e5353444141L;      // "AADSSNAP"
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = 32;
+
+    // Write atomically: into a temporary file next to the target, then moved over it
+    // The temporary name is per process and thread, so concurrent writers never share one
+    static void write(InputData data, byte[] sourceHash, Path file) {
+        Path tmp = file.resolveSibling("." + file.getFileName() + "." + ProcessHandle.current().pid() + "."
+                + Thread.currentThread().getId() + ".tmp");
+        ViewpointStore store = data.store;
+        CoverageIndex coverage = data.coverage;
+        CollisionMatrix matrix = data.collisionMatrix;
+        try (Output out = new Output(tmp)) {
+            out.putLong(MAGIC);
+            out.putInt(VERSION);
+            out.putBytes(sourceHash);
+            out.putDouble(data.lambda);
+            out.putInt(data.directions.size());
+            out.putInt(store.numDirections());
+            out.putInt(data.viewpoints.size());
+            out.putInt(store.size);
+            out.putInt(data.samplePoints.size());
+            out.putInt(coverage.samplePairs.length);
+            out.putInt(coverage.pairSamples.length);
+            out.putInt(matrix.size());
+            out.putInt(matrix.isSymmetric() ? 1 : 0);
+
+            for (Direction d : data.directions) {
+                out.putString(d.Id);
+                out.putDouble(d.x);
+                out.putDouble(d.y);
+                out.putDouble(d.z);
+            }
+            for (String id : store.directionIds) {
+                out.putString(id);
+            }
+
+            for (Viewpoint vp : data.viewpoints) {
+                out.putString(vp.id);
+            }
+            out.putDoubles(store.xs);
+            out.putDoubles(store.ys);
+            out.putDoubles(store.zs);
+            out.putLongs(store.mandatory);
+            out.putDoubles(store.precision);
+
+            for (SamplePoint sp : data.samplePoints) {
+                out.putString(sp.id);
+                out.putDouble(sp.x);
+                out.putDouble(sp.y);
+                out.putDouble(sp.z);
+            }
+            out.putInts(coverage.sampleStart);
+            out.putInts(coverage.samplePairs);
+            out.putInts(coverage.pairStart);
+            out.putInts(coverage.pairSamples);
+
+            matrix.writeTo(out);
+            out.putLong(MAGIC);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write snapshot: " + file, e);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write snapshot: " + file, e);
+        }
+    }
+
+    // Source hash recorded in a snapshot, null if there is no readable snapshot of this version
+    static byte[] sourceHash(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (Input in = new Input(file)) {
+            if (in.getLong() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            return in.getBytes(HASH_BYTES);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static InputData read(Path file) {
+        try (Input in = new Input(file)) {
+            if (in.getLong() != MAGIC || in.getInt() != VERSION) {
+                throw new RuntimeException("Not a snapshot of version " + VERSION + ": " + file);
+            }
+            byte[] sourceHash = in.getBytes(HASH_BYTES);
+            double lambda = in.getDouble();
+            int numDirections = in.getInt();
+            int storeDirections = in.getInt();
+            int numViewpoints = in.getInt();
+            int storeSize = in.getInt();
+            int numSamples = in.getInt();
+            int numSamplePairs = in.getInt();
+            int numPairSamples = in.getInt();
+            int matrixSize = in.getInt();
+            boolean symmetric = in.getInt() == 1;
+
+            List<Direction> directions = new ArrayList<>(numDirections);
+            for (int d = 0; d < numDirections; d++) {
+                directions.add(new Direction(in.getString(), in.getDouble(), in.getDouble(), in.getDouble()));
+            }
+            String[] directionIds = new String[storeDirections];
+            for (int d = 0; d < storeDirections; d++) {
+                directionIds[d] = in.getString();
+            }
+
+            ViewpointStore store = new ViewpointStore(storeSize, directionIds);
+            String[] viewpointIds = new String[numViewpoints];
+            for (int v = 0; v < numViewpoints; v++) {
+                viewpointIds[v] = in.getString();
+            }
+            in.getDoubles(store.xs);
+            in.getDoubles(store.ys);
+            in.getDoubles(store.zs);
+            in.getLongs(store.mandatory);
+            in.getDoubles(store.precision);
+            List<Viewpoint> viewpoints = new ArrayList<>(numViewpoints);
+            for (String id : viewpointIds) {
+                Viewpoint vp = new Viewpoint(id, false, 0, 0, 0, null);
+                vp.isMandatory = store.isMandatory(vp.index);
+                vp.x = store.xs[vp.index];
+                vp.y = store.ys[vp.index];
+                vp.z = store.zs[vp.index];
+                store.bind(vp);
+                viewpoints.add(vp);
+            }
+
+            List<SamplePoint> samples = new ArrayList<>(numSamples);
+            for (int k = 0; k < numSamples; k++) {
+                samples.add(new SamplePoint(in.getString(), in.getDouble(), in.getDouble(), in.getDouble()));
+            }
+            int[] sampleStart = in.getInts(numSamples + 1);
+            int[] samplePairs = in.getInts(numSamplePairs);
+            int[] pairStart = in.getInts(storeSize * storeDirections + 1);
+            int[] pairSamples = in.getInts(numPairSamples);
+            CoverageIndex coverage = new CoverageIndex(storeSize, storeDirections,
+                    sampleStart, samplePairs, pairStart, pairSamples);
+            coverage.bind(samples, store);
+
+            CollisionMatrix matrix = CollisionMatrix.readFrom(in, matrixSize, symmetric);
+            if (in.getLong() != MAGIC) {
+                throw new RuntimeException("Snapshot is corrupt: " + file);
+            }
+            SolverMetrics.count("viewpoints", numViewpoints);
+            SolverMetrics.count("samples", numSamples);
+            SolverMetrics.count("covering_pairs", numSamplePairs);
+            SolverMetrics.count("snapshot_bytes", in.size);
+            InputData data = new InputData(viewpoints, samples, directions, matrix, lambda, store, coverage);
+            data.sourceHash = sourceHash;
+            return data;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read snapshot: " + file, e);
+        }
+    }
+
+    // SHA-256 of a whole file
+    static byte[] sha256(Path file) throws IOException {
+        try (DigestChannel in = new DigestChannel(FileChannel.open(file, StandardOpenOption.READ))) {
+            return in.finish();
+        }
+    }
+
+    // DigestChannel : Hash every byte read through it
+    static class DigestChannel implements ReadableByteChannel {
+        private final ReadableByteChannel source;
+        private final MessageDigest digest;
+
+        DigestChannel(ReadableByteChannel source) {
+            this.source = source;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int start = dst.position();
+            int n = source.read(dst);
+            if (n > 0) {
+                ByteBuffer read = dst.duplicate();
+                read.position(start).limit(start + n);
+                digest.update(read);
+            }
+            return n;
+        }
+
+        // Read whatever is left and return the hash of everything
+        byte[] finish() throws IOException {
+            ByteBuffer rest = ByteBuffer.allocateDirect(1 << 20);
+            while (read(rest) >= 0) {
+                rest.clear();
+            }
+            return digest.digest();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    // Output : Sequential little-endian writes through a direct buffer
+    static class Output implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+        }
+
+        void putInt(int v) throws IOException {
+            room(Integer.BYTES);
+            buf.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            room(Long.BYTES);
+            buf.putLong(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            room(Double.BYTES);
+            buf.putDouble(v);
+        }
+
+        void putBytes(byte[] src) throws IOException {
+            for (int off = 0; off < src.length; ) {
+                room(1);
+                int n = Math.min(src.length - off, buf.remaining());
+                buf.put(src, off, n);
+                off += n;
+            }
+        }
+
+        void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        void putInts(int[] src) throws IOException {
+            for (int off = 0; off < src.length; ) {
+                room(Integer.BYTES);
+                int n = Math.min(src.length - off, buf.remaining() / Integer.BYTES);
+                buf.asIntBuffer().put(src, off, n);
+                buf.position(buf.position() + n * Integer.BYTES);
+                off += n;
+            }
+        }
+
+        void putLongs(long[] src) throws IOException {
+            for (int off = 0; off < src.length; ) {
+                room(Long.BYTES);
+                int n = Math.min(src.length - off, buf.remaining() / Long.BYTES);
+                buf.asLongBuffer().put(src, off, n);
+                buf.position(buf.position() + n * Long.BYTES);
+                off += n;
+            }
+        }
+
+        void putDoubles(double[] src) throws IOException {
+            for (int off = 0; off < src.length; ) {
+                room(Double.BYTES);
+                int n = Math.min(src.length - off, buf.remaining() / Double.BYTES);
+                buf.asDoubleBuffer().put(src, off, n);
+                buf.position(buf.position() + n * Double.BYTES);
+                off += n;
+            }
+        }
+
+        private void room(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    // Input : Sequential little-endian reads over read-only mappings of the file, one window at a time
+    static class Input implements AutoCloseable {
+        // Mapped bytes per window, well below the 2 GiB limit of a single mapping
+        private static final long WINDOW_BYTES = 1L << 28;
+
+        private final FileChannel channel;
+        final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        Input(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.size = channel.size();
+            map(0);
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_BYTES, size - position));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // Move the window so that it holds at least the next bytes
+        private void need(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                long next = windowStart + window.position();
+                if (size - next < bytes) {
+                    throw new IOException("Snapshot is truncated at byte " + next);
+                }
+                map(next);
+            }
+        }
+
+        int getInt() throws IOException {
+            need(Integer.BYTES);
+            return window.getInt();
+        }
+
+        long getLong() throws IOException {
+            need(Long.BYTES);
+            return window.getLong();
+        }
+
+        double getDouble() throws IOException {
+            need(Double.BYTES);
+            return window.getDouble();
+        }
+
+        byte[] getBytes(int length) throws IOException {
+            byte[] dst = new byte[length];
+            for (int off = 0; off < length; ) {
+                need(1);
+                int n = Math.min(length - off, window.remaining());
+                window.get(dst, off, n);
+                off += n;
+            }
+            return dst;
+        }
+
+        String getString() throws IOException {
+            return new String(getBytes(getInt()), StandardCharsets.UTF_8);
+        }
+
+        int[] getInts(int length) throws IOException {
+            int[] dst = new int[length];
+            for (int off = 0; off < length; ) {
+                need(Integer.BYTES);
+                int n = Math.min(length - off, window.remaining() / Integer.BYTES);
+                window.asIntBuffer().get(dst, off, n);
+                window.position(window.position() + n * Integer.BYTES);
+                off += n;
+            }
+            return dst;
+        }
+
+        long[] getLongs(int length) throws IOException {
+            long[] dst = new long[length];
+            getLongs(dst);
+            return dst;
+        }
+
+        void getLongs(long[] dst) throws IOException {
+            for (int off = 0; off < dst.length; ) {
+                need(Long.BYTES);
+                int n = Math.min(dst.length - off, window.remaining() / Long.BYTES);
+                window.asLongBuffer().get(dst, off, n);
+                window.position(window.position() + n * Long.BYTES);
+                off += n;
+            }
+        }
+
+        void getDoubles(double[] dst) throws IOException {
+            for (int off = 0; off < dst.length; ) {
+                need(Double.BYTES);
+                int n = Math.min(dst.length - off, window.remaining() / Double.BYTES);
+                window.asDoubleBuffer().get(dst, off, n);
+                window.position(window.position() + n * Double.BYTES);
+                off += n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
+
+// =============Tool/Functional Class==============
+// JsonReader : Pull-style JSON tokenizer working directly on bytes
+class JsonReader {
+    // Tokens returned by peek()
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+    }
+
+    // Nesting scopes
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Largest mantissa that is still exact in a double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    // Exact powers of ten for the fast number path
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Source of bytes, null when the whole input is already in buf
+    private final ReadableByteChannel channel;
+    private final ByteBuffer window;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    // Bytes consumed before the current window (for error positions)
+    private long base;
+
+    // Scope stack
+    private int[] stack = new int[32];
+    private int depth;
+    private Token peeked;
+
+    // Reusable bytes of the last string/name/number
+    private byte[] scratch = new byte[128];
+    private int scratchLen;
+
+    // Constructor: stream from a channel
+    JsonReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.window = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buf = window.array();
+        this.stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    // Constructor: read from a byte array
+    JsonReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    // Constructor: read from a slice of a byte array
+    JsonReader(byte[] data, int offset, int length) {
+        this.channel = null;
+        this.window = null;
+        this.buf = data;
+        this.pos = offset;
+        this.limit = offset + length;
+        this.base = -offset;
+        this.stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    // Read from a byte buffer (heap or direct/mapped)
+    static JsonReader of(ByteBuffer data) {
+        if (data.hasArray()) {
+            return new JsonReader(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        ByteBuffer src = data.slice();
+        return new JsonReader(new ReadableByteChannel() {
+            public int read(ByteBuffer dst) {
+                if (!src.hasRemaining()) return -1;
+                int n = Math.min(dst.remaining(), src.remaining());
+                ByteBuffer part = src.slice();
+                part.limit(n);
+                dst.put(part);
+                src.position(src.position() + n);
+                return n;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        });
+    }
+
+    // Read from stdin without copying it into a String
+    static JsonReader fromStdin() {
+        return new JsonReader(new FileInputStream(FileDescriptor.in).getChannel());
+    }
+
+    // Look at the next token without consuming it
+    Token peek() {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = stack[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                if (peekByte() == ']') {
+                    pos++;
+                    return peeked = Token.END_ARRAY;
+                }
+                break;
+            case NONEMPTY_ARRAY:
+                c = peekByte();
+                if (c == ']') {
+                    pos++;
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',') throw syntaxError("Expected ',' or ']'");
+                pos++;
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = peekByte();
+                if (c == '}') {
+                    pos++;
+                    return peeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("Expected ',' or '}'");
+                    pos++;
+                    c = peekByte();
+                }
+                if (c != '"') throw syntaxError("Expected name");
+                pos++;
+                stack[depth - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (peekByte() != ':') throw syntaxError("Expected ':'");
+                pos++;
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                // Several top-level values may follow each other (newline-delimited input)
+                if (peekByte() == -1) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                break;
+        }
+        return peeked = peekValue();
+    }
+
+    // Classify the value starting at the next non-whitespace byte
+    private Token peekValue() {
+        int c = peekByte();
+        switch (c) {
+            case '{':
+                pos++;
+                return Token.BEGIN_OBJECT;
+            case '[':
+                pos++;
+                return Token.BEGIN_ARRAY;
+            case '"':
+                pos++;
+                return Token.STRING;
+            case 't':
+                expectLiteral("true");
+                return Token.TRUE;
+            case 'f':
+                expectLiteral("false");
+                return Token.FALSE;
+            case 'n':
+                expectLiteral("null");
+                return Token.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    void beginObject() {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    void beginArray() {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    // Whether the current object/array has more elements
+    boolean hasNext() {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    String nextName() {
+        expect(Token.NAME);
+        readStringBytes();
+        return scratchString();
+    }
+
+    // Match the next name against pre-encoded candidates without allocating, -1 if unknown
+    int nextName(byte[][] candidates) {
+        expect(Token.NAME);
+        readStringBytes();
+        return matchScratch(candidates);
+    }
+
+    // Read the next name as an interned id
+    int nextName(Interner interner) {
+        expect(Token.NAME);
+        readStringBytes();
+        return interner.intern(scratch, scratchLen);
+    }
+
+    String nextString() {
+        expect(Token.STRING);
+        readStringBytes();
+        return scratchString();
+    }
+
+    // Read the next string as an interned id
+    int nextString(Interner interner) {
+        expect(Token.STRING);
+        readStringBytes();
+        return interner.intern(scratch, scratchLen);
+    }
+
+    // Read the next string into the scratch buffer and return its length (see lastBytes())
+    int nextStringBytes() {
+        expect(Token.STRING);
+        readStringBytes();
+        return scratchLen;
+    }
+
+    // Bytes of the last string, name or number read
+    byte[] lastBytes() {
+        return scratch;
+    }
+
+    boolean nextBoolean() {
+        Token t = peek();
+        if (t == Token.TRUE || t == Token.FALSE) {
+            peeked = null;
+            return t == Token.TRUE;
+        }
+        throw syntaxError("Expected a boolean but was " + t);
+    }
+
+    void nextNull() {
+        expect(Token.NULL);
+    }
+
+    // Parse a number without creating intermediate strings
+    double nextDouble() {
+        expect(Token.NUMBER);
+        return readNumber();
+    }
+
+    // Parse an integer, truncating numbers with fraction/exponent like Double.intValue()
+    int nextInt() {
+        expect(Token.NUMBER);
+        scratchLen = 0;
+        int c = peekByteRaw();
+        boolean negative = false;
+        if (c == '-') {
+            negative = true;
+            appendScratch('-');
+            pos++;
+            c = peekByteRaw();
+        }
+        // Fast path: short plain integers such as collision matrix entries
+        long value = 0;
+        int digits = 0;
+        while (c >= '0' && c <= '9' && digits < 10) {
+            value = value * 10 + (c - '0');
+            digits++;
+            appendScratch((byte) c);
+            pos++;
+            c = peekByteRaw();
+        }
+        if (digits > 0 && digits < 10 && c != '.' && c != 'e' && c != 'E' && !(c >= '0' && c <= '9')) {
+            return (int) (negative ? -value : value);
+        }
+        // Slow path: finish it as a double
+        return (int) continueNumber(negative, value, digits, 0, true);
+    }
+
+    // Skip the next value (including nested objects/arrays)
+    void skipValue() {
+        int level = 0;
+        do {
+            Token t = peek();
+            switch (t) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    level++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    level++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    level--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    level--;
+                    break;
+                case NAME:
+                case STRING:
+                    peeked = null;
+                    readStringBytes();
+                    break;
+                case NUMBER:
+                    peeked = null;
+                    readNumber();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of input");
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while (level > 0);
+    }
+
+    // Absolute byte offset of the reader (for diagnostics)
+    long position() {
+        return base + pos;
+    }
+
+    // ---------- internals ----------
+
+    private void expect(Token token) {
+        Token t = peek();
+        if (t != token) {
+            throw syntaxError("Expected " + token + " but was " + t);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = scope;
+    }
+
+    // Refill the window from the channel, false at end of input
+    private boolean fill() {
+        if (channel == null) {
+            return false;
+        }
+        base += limit;
+        pos = 0;
+        limit = 0;
+        try {
+            window.clear();
+            int n;
+            do {
+                n = channel.read(window);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            limit = n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Next non-whitespace byte without consuming it, -1 at end of input
+    private int peekByte() {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            byte c = buf[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') pos++;
+            else return c & 0xFF;
+        }
+    }
+
+    // Next byte without skipping whitespace, -1 at end of input
+    private int peekByteRaw() {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos] & 0xFF;
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (peekByteRaw() != literal.charAt(i)) {
+                throw syntaxError("Expected '" + literal + "'");
+            }
+            pos++;
+        }
+    }
+
+    // Copy the string body after the opening quote into scratch, decoding escapes to UTF-8
+    private void readStringBytes() {
+        scratchLen = 0;
+        while (true) {
+            if (pos == limit && !fill()) {
+                throw syntaxError("Unterminated string");
+            }
+            // Copy the run of plain bytes in one go
+            int runStart = pos;
+            byte c = 0;
+            while (pos < limit) {
+                c = buf[pos];
+                if (c == '"' || c == '\\') break;
+                pos++;
+            }
+            appendScratch(buf, runStart, pos - runStart);
+            if (pos == limit) {
+                continue;
+            }
+            pos++;
+            if (c == '"') {
+                return;
+            }
+            int next = peekByteRaw();
+            pos++;
+            switch (next) {
+                case '"':
+                case '\\':
+                case '/':
+                    appendScratch((byte) next);
+                    break;
+                case 'b':
+                    appendScratch((byte) '\b');
+                    break;
+                case 'f':
+                    appendScratch((byte) '\f');
+                    break;
+                case 'n':
+                    appendScratch((byte) '\n');
+                    break;
+                case 'r':
+                    appendScratch((byte) '\r');
+                    break;
+                case 't':
+                    appendScratch((byte) '\t');
+                    break;
+                case 'u':
+                    appendCodePoint(readHex4());
+                    break;
+                default:
+                    throw syntaxError("Bad escape");
+            }
+        }
+    }
+
+    private int readHex4() {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int h = peekByteRaw();
+            pos++;
+            int d = Character.digit(h, 16);
+            if (h < 0 || d < 0) throw syntaxError("Bad unicode escape");
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+
+    private void appendCodePoint(int cp) {
+        // Surrogate pairs arrive as two escapes
+        if (Character.isHighSurrogate((char) cp) && peekByteRaw() == '\\') {
+            pos++;
+            if (peekByteRaw() != 'u') throw syntaxError("Bad surrogate pair");
+            pos++;
+            int low = readHex4();
+            cp = Character.toCodePoint((char) cp, (char) low);
+        }
+        if (cp < 0x80) {
+            appendScratch((byte) cp);
+        } else if (cp < 0x800) {
+            appendScratch((byte) (0xC0 | (cp >> 6)));
+            appendScratch((byte) (0x80 | (cp & 0x3F)));
+        } else if (cp < 0x10000) {
+            appendScratch((byte) (0xE0 | (cp >> 12)));
+            appendScratch((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            appendScratch((byte) (0x80 | (cp & 0x3F)));
+        } else {
+            appendScratch((byte) (0xF0 | (cp >> 18)));
+            appendScratch((byte) (0x80 | ((cp >> 12) & 0x3F)));
+            appendScratch((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            appendScratch((byte) (0x80 | (cp & 0x3F)));
+        }
+    }
+
+    // Parse a JSON number, exact fast path for short mantissas, JDK parser otherwise
+    private double readNumber() {
+        scratchLen = 0;
+        int c = peekByteRaw();
+        boolean negative = false;
+        if (c == '-') {
+            negative = true;
+            appendScratch('-');
+            pos++;
+        }
+        return continueNumber(negative, 0, 0, 0, true);
+    }
+
+    // Continue scanning a number whose integer prefix (value, digits) was already consumed
+    private double continueNumber(boolean negative, long mantissa, int digits, int exponent, boolean exact) {
+        int c = peekByteRaw();
+        // Integer part
+        while (c >= '0' && c <= '9') {
+            if (mantissa < MAX_EXACT_MANTISSA / 10) mantissa = mantissa * 10 + (c - '0');
+            else exact = false;
+            digits++;
+            appendScratch((byte) c);
+            pos++;
+            c = peekByteRaw();
+        }
+        if (digits == 0) throw syntaxError("Bad number");
+        // Fraction part
+        if (c == '.') {
+            appendScratch('.');
+            pos++;
+            c = peekByteRaw();
+            while (c >= '0' && c <= '9') {
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    exponent--;
+                } else {
+                    exact = false;
+                }
+                appendScratch((byte) c);
+                pos++;
+                c = peekByteRaw();
+            }
+        }
+        // Exponent part
+        if (c == 'e' || c == 'E') {
+            appendScratch('e');
+            pos++;
+            c = peekByteRaw();
+            boolean expNegative = false;
+            if (c == '+' || c == '-') {
+                expNegative = c == '-';
+                appendScratch((byte) c);
+                pos++;
+                c = peekByteRaw();
+            }
+            int e = 0;
+            while (c >= '0' && c <= '9') {
+                if (e < 10000) e = e * 10 + (c - '0');
+                appendScratch((byte) c);
+                pos++;
+                c = peekByteRaw();
+            }
+            exponent += expNegative ? -e : e;
+        }
+        if (exact) {
+            if (mantissa == 0) {
+                return negative ? -0.0 : 0.0;
+            }
+            // Both operands are exact doubles, so one IEEE operation rounds correctly
+            double m = negative ? -mantissa : mantissa;
+            if (exponent == 0) return m;
+            if (exponent > 0 && exponent <= 22) return m * POW10[exponent];
+            if (exponent < 0 && exponent >= -22) return m / POW10[-exponent];
+        }
+        return Double.parseDouble(new String(scratch, 0, scratchLen, StandardCharsets.ISO_8859_1));
+    }
+
+    private void appendScratch(int b) {
+        if (scratchLen == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratchLen * 2);
+        }
+        scratch[scratchLen++] = (byte) b;
+    }
+
+    private void appendScratch(byte[] src, int from, int len) {
+        if (scratchLen + len > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, scratchLen + len));
+        }
+        System.arraycopy(src, from, scratch, scratchLen, len);
+        scratchLen += len;
+    }
+
+    private String scratchString() {
+        return new String(scratch, 0, scratchLen, StandardCharsets.UTF_8);
+    }
+
+    private int matchScratch(byte[][] candidates) {
+        for (int k = 0; k < candidates.length; k++) {
+            byte[] cand = candidates[k];
+            if (cand.length == scratchLen && Arrays.equals(cand, 0, scratchLen, scratch, 0, scratchLen)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    // Pre-encode names for nextName(byte[][])
+    static byte[][] names(String... names) {
+        byte[][] res = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            res[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return res;
+    }
+
+    private RuntimeException syntaxError(String msg) {
+        return new RuntimeException(msg + " at " + position());
+    }
+
+    // Interner : Dense int ids for byte strings, strings seen before cost no allocation
+    static class Interner {
+        // Open addressing table of id + 1, 0 = empty
+        private int[] slots = new int[64];
+        private byte[][] keys = new byte[16][];
+        private int[] hashes = new int[16];
+        private String[] strings = new String[16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        // String of an id
+        String get(int id) {
+            return strings[id];
+        }
+
+        // Id of a string, adding it if new
+        int intern(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            return intern(b, b.length);
+        }
+
+        // Id of bytes[0..len), adding it if new
+        int intern(byte[] bytes, int len) {
+            int h = hash(bytes, len);
+            int mask = slots.length - 1;
+            for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+                int e = slots[slot];
+                if (e == 0) {
+                    return add(bytes, len, h, slot);
+                }
+                int id = e - 1;
+                if (hashes[id] == h && Arrays.equals(keys[id], 0, keys[id].length, bytes, 0, len)) {
+                    return id;
+                }
+            }
+        }
+
+        // Id of a string, -1 if it was never interned
+        int find(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            int h = hash(b, b.length);
+            int mask = slots.length - 1;
+            for (int slot = h & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                int id = slots[slot] - 1;
+                if (hashes[id] == h && Arrays.equals(keys[id], b)) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        private int add(byte[] bytes, int len, int h, int slot) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+                strings = Arrays.copyOf(strings, size * 2);
+            }
+            int id = size++;
+            keys[id] = Arrays.copyOf(bytes, len);
+            hashes[id] = h;
+            strings[id] = new String(bytes, 0, len, StandardCharsets.UTF_8);
+            slots[slot] = id + 1;
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int id = 0; id < size; id++) {
+                int slot = hashes[id] & mask;
+                while (slots[slot] != 0) slot = (slot + 1) & mask;
+                slots[slot] = id + 1;
+            }
+        }
+
+        private static int hash(byte[] b, int len) {
+            int h = 0;
+            for (int i = 0; i < len; i++) {
+                h = 31 * h + b[i];
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
+
+// SimpleJsonParser : Generic tree API on top of JsonReader
+class SimpleJsonParser {
+    private final JsonReader reader;
+
+    // Constructor
+    SimpleJsonParser(String text) {
+        this(new JsonReader(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    SimpleJsonParser(JsonReader reader) {
+        this.reader = reader;
+    }
+
+    // Read Json File From Stdin
+    static Object parseFromInput() throws IOException {
+        SimpleJsonParser parser = new SimpleJsonParser(JsonReader.fromStdin());
+        return parser.parseValue();
+    }
+
+    // Main Method
+    Object parseValue() {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return parseObject();
+            case BEGIN_ARRAY:
+                return parseArray();
+            case STRING:
+                return parseString();
+            case NUMBER:
+                return parseNumber();
+            case TRUE:
+            case FALSE:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                throw new RuntimeException("Unexpected token at " + reader.position() + ": " + reader.peek());
+        }
+    }
+
+    // Parse Object
+    Map<String, Object> parseObject() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            map.put(key, parseValue());
+        }
+        reader.endObject();
+        return map;
+    }
+
+    // Parse Array
+    List<Object> parseArray() {
+        List<Object> list = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            list.add(parseValue());
+        }
+        reader.endArray();
+        return list;
+    }
+
+    // Parse String
+    String parseString() {
+        return reader.nextString();
+    }
+
+    // Parse Number
+    Double parseNumber() {
+        return reader.nextDouble();
+    }
+}
+
+// JsonParser : Convert Json to InputData
+// Decodes the known schema straight into the final structures, without a generic tree
+class JsonParser {
+    private static final byte[][] ROOT_KEYS = JsonReader.names(
+            "metadata", "directions", "viewpoints", "sample_points", "collision_matrix");
+    private static final byte[][] METADATA_KEYS = JsonReader.names("lambda");
+    private static final byte[][] VIEWPOINT_KEYS = JsonReader.names(
+            "id", "is_mandatory", "coordinates", "precision");
+    private static final byte[][] SAMPLE_KEYS = JsonReader.names("id", "coordinates", "covering_pairs");
+    private static final byte[][] XYZ_KEYS = JsonReader.names("x", "y", "z");
+
+    static InputData parseInput() throws Exception {
+        return parse(JsonReader.fromStdin());
+    }
+
+    // Read the instance of --input (stdin without it), going through the snapshot of --snapshot if given:
+    // a snapshot whose source hash matches the input is loaded instead of parsing, any other is rewritten
+    static InputData parseInput(SolverConfig config) throws IOException {
+        return parseInput(config, null);
+    }
+
+    // Same, with the SHA-256 of the --input file when the caller already has it
+    static InputData parseInput(SolverConfig config, byte[] inputHash) throws IOException {
+        boolean hashed = config.snapshot != null || config.cache != null;
+        Path snapshot = config.snapshot == null ? null : Paths.get(config.snapshot);
+        if (config.input == null) {
+            if (!hashed) {
+                return parse(JsonReader.fromStdin());
+            }
+            // Stdin can only be read once, so hash it while parsing
+            InstanceSnapshot.DigestChannel in = new InstanceSnapshot.DigestChannel(
+                    new FileInputStream(FileDescriptor.in).getChannel());
+            InputData data = parse(new JsonReader(in));
+            data.sourceHash = in.finish();
+            if (snapshot != null) {
+                InstanceSnapshot.write(data, data.sourceHash, snapshot);
+            }
+            return data;
+        }
+        Path input = Paths.get(config.input);
+        byte[] hash = inputHash == null && hashed ? InstanceSnapshot.sha256(input) : inputHash;
+        if (snapshot != null && Arrays.equals(hash, InstanceSnapshot.sourceHash(snapshot))) {
+            return InstanceSnapshot.read(snapshot);
+        }
+        if (snapshot != null && Files.exists(snapshot)) {
+            System.err.println("Snapshot " + snapshot + " does not match " + input + ", rewriting it");
+        }
+        InputData data;
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            data = parse(new JsonReader(in));
+        }
+        data.sourceHash = hash;
+        if (snapshot != null) {
+            InstanceSnapshot.write(data, hash, snapshot);
+        }
+        return data;
+    }
+
+    // Decode one instance from the reader
+    static InputData parse(JsonReader reader) {
+        double lambda = Double.NaN;
+        List<Direction> directions = new ArrayList<>();
+        List<Viewpoint> viewpoints = new ArrayList<>();
+        List<SamplePoint> samples = new ArrayList<>();
+        CollisionMatrix matrix = new CollisionMatrix.Builder().build();
+        PrecisionEntries precision = new PrecisionEntries();
+        PairEntries pairs = new PairEntries();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(ROOT_KEYS)) {
+                case 0:
+                    lambda = parseMetadata(reader);
+                    break;
+                case 1:
+                    parseDirections(reader, directions);
+                    break;
+                case 2:
+                    parseViewpoints(reader, viewpoints, precision);
+                    break;
+                case 3:
+                    parseSamplePoints(reader, samples, pairs);
+                    break;
+                case 4:
+                    matrix = parseCollisionMatrix(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (Double.isNaN(lambda)) {
+            throw new RuntimeException("metadata.lambda is missing");
+        }
+
+        //  Construct InputData
+        ViewpointStore store = buildStore(viewpoints, directions, precision);
+        CoverageIndex coverage = buildCoverage(pairs, store);
+        coverage.bind(samples, store);
+        SolverMetrics.count("viewpoints", viewpoints.size());
+        SolverMetrics.count("samples", samples.size());
+        SolverMetrics.count("covering_pairs", coverage.samplePairs.length);
+        return new InputData(viewpoints, samples, directions, matrix, lambda, store, coverage);
+    }
+
+    // PairEntries : Covering pairs as interned (viewpoint id, direction id) keys, one row per sample
+    private static class PairEntries {
+        final JsonReader.Interner vpKeys = new JsonReader.Interner();
+        final JsonReader.Interner dirKeys = new JsonReader.Interner();
+        int[] vps = new int[256];
+        int[] dirs = new int[256];
+        int size;
+        int[] sampleStart = new int[64];
+        int samples;
+
+        void add(int vp, int dir) {
+            if (size == vps.length) {
+                vps = Arrays.copyOf(vps, size * 2);
+                dirs = Arrays.copyOf(dirs, size * 2);
+            }
+            vps[size] = vp;
+            dirs[size] = dir;
+            size++;
+        }
+
+        // Close the row of the current sample
+        void endSample() {
+            if (samples + 2 > sampleStart.length) {
+                sampleStart = Arrays.copyOf(sampleStart, sampleStart.length * 2);
+            }
+            sampleStart[++samples] = size;
+        }
+    }
+
+    // Resolve the interned keys to viewpoint indices/direction ordinals and build the CSR index
+    private static CoverageIndex buildCoverage(PairEntries pairs, ViewpointStore store) {
+        Map<String, Integer> vpIndex = new HashMap<>();
+        for (int i = 0; i < store.size; i++) {
+            if (store.viewpointIds[i] != null) {
+                vpIndex.put(store.viewpointIds[i], i);
+            }
+        }
+        int[] keyToVp = new int[pairs.vpKeys.size()];
+        for (int k = 0; k < keyToVp.length; k++) {
+            keyToVp[k] = vpIndex.getOrDefault(pairs.vpKeys.get(k), -1);
+        }
+        int[] keyToDir = new int[pairs.dirKeys.size()];
+        for (int k = 0; k < keyToDir.length; k++) {
+            keyToDir[k] = store.directionOrdinal(pairs.dirKeys.get(k));
+        }
+        // Pairs that name an unknown viewpoint or direction can never be selected, drop them
+        int[] start = new int[pairs.samples + 1];
+        int[] ids = new int[pairs.size];
+        int count = 0;
+        for (int s = 0; s < pairs.samples; s++) {
+            for (int e = pairs.sampleStart[s]; e < pairs.sampleStart[s + 1]; e++) {
+                int vp = keyToVp[pairs.vps[e]];
+                int dir = keyToDir[pairs.dirs[e]];
+                if (vp >= 0 && dir >= 0) {
+                    ids[count++] = vp * store.numDirections() + dir;
+                }
+            }
+            start[s + 1] = count;
+        }
+        return new CoverageIndex(store.size, store.numDirections(), start, Arrays.copyOf(ids, count));
+    }
+
+    // PrecisionEntries : (viewpoint index, key id, value) triplets collected while streaming
+    private static class PrecisionEntries {
+        final JsonReader.Interner keys = new JsonReader.Interner();
+        int[] vps = new int[256];
+        int[] dirs = new int[256];
+        double[] values = new double[256];
+        int size;
+
+        void add(int vp, int dir, double value) {
+            if (size == vps.length) {
+                vps = Arrays.copyOf(vps, size * 2);
+                dirs = Arrays.copyOf(dirs, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            vps[size] = vp;
+            dirs[size] = dir;
+            values[size] = value;
+            size++;
+        }
+    }
+
+    // Fill the columnar store once the directions are known, and bind the viewpoints to it
+    private static ViewpointStore buildStore(List<Viewpoint> viewpoints, List<Direction> directions,
+                                             PrecisionEntries precision) {
+        // Direction ordinals follow the directions array, unknown precision keys are appended
+        List<String> ids = new ArrayList<>();
+        for (Direction d : directions) {
+            ids.add(d.Id);
+        }
+        int[] keyToDir = new int[precision.keys.size()];
+        for (int k = 0; k < keyToDir.length; k++) {
+            String key = precision.keys.get(k);
+            int d = ids.indexOf(key);
+            if (d < 0) {
+                d = ids.size();
+                ids.add(key);
+            }
+            keyToDir[k] = d;
+        }
+        int size = 0;
+        for (Viewpoint vp : viewpoints) {
+            size = Math.max(size, vp.index + 1);
+        }
+        ViewpointStore store = new ViewpointStore(size, ids.toArray(new String[0]));
+        for (Viewpoint vp : viewpoints) {
+            store.set(vp.index, vp.x, vp.y, vp.z, vp.isMandatory);
+            store.bind(vp);
+        }
+        for (int e = 0; e < precision.size; e++) {
+            store.setPrecision(precision.vps[e], keyToDir[precision.dirs[e]], precision.values[e]);
+        }
+        return store;
+    }
+
+    // Get Lambda
+    private static double parseMetadata(JsonReader reader) {
+        double lambda = Double.NaN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName(METADATA_KEYS) == 0) {
+                lambda = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return lambda;
+    }
+
+    // Get Directions
+    private static void parseDirections(JsonReader reader, List<Direction> directions) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String id = "a" + (directions.size() + 1);
+            reader.beginArray();
+            double x = reader.nextDouble();
+            double y = reader.nextDouble();
+            double z = reader.nextDouble();
+            while (reader.hasNext()) {
+                reader.skipValue();
+            }
+            reader.endArray();
+            directions.add(new Direction(id, x, y, z));
+        }
+        reader.endArray();
+    }
+
+    // Get Viewpoints
+    private static void parseViewpoints(JsonReader reader, List<Viewpoint> viewpoints, PrecisionEntries precision) {
+        double[] xyz = new double[3];
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String id = null;
+            boolean isMandatory = false;
+            boolean located = false;
+            // Precision is buffered until the id (and so the index) is known
+            int firstEntry = precision.size;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName(VIEWPOINT_KEYS)) {
+                    case 0:
+                        id = reader.nextString();
+                        break;
+                    case 1:
+                        JsonReader.Token t = reader.peek();
+                        if (t == JsonReader.Token.TRUE || t == JsonReader.Token.FALSE) {
+                            isMandatory = reader.nextBoolean();
+                        } else {
+                            reader.skipValue();
+                        }
+                        break;
+                    case 2:
+                        located = parseCoordinates(reader, xyz);
+                        break;
+                    case 3:
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            int key = reader.nextName(precision.keys);
+                            precision.add(-1, key, reader.nextDouble());
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (id == null) {
+                throw new RuntimeException("Viewpoint without id at " + reader.position());
+            }
+            if (!located) {
+                throw new RuntimeException("Viewpoint " + id + " without coordinates at " + reader.position());
+            }
+            Viewpoint vp = new Viewpoint(id, isMandatory, xyz[0], xyz[1], xyz[2], null);
+            for (int e = firstEntry; e < precision.size; e++) {
+                precision.vps[e] = vp.index;
+            }
+            viewpoints.add(vp);
+        }
+        reader.endArray();
+    }
+
+    // Get SamplePoints
+    private static void parseSamplePoints(JsonReader reader, List<SamplePoint> samples, PairEntries pairs) {
+        double[] xyz = new double[3];
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String id = null;
+            boolean located = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName(SAMPLE_KEYS)) {
+                    case 0:
+                        id = reader.nextString();
+                        break;
+                    case 1:
+                        located = parseCoordinates(reader, xyz);
+                        break;
+                    case 2:
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            reader.beginArray();
+                            int vpKey = reader.nextString(pairs.vpKeys);
+                            int angleKey = reader.nextString(pairs.dirKeys);
+                            reader.endArray();
+                            pairs.add(vpKey, angleKey);
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (!located) {
+                throw new RuntimeException("Sample point " + id + " without coordinates at " + reader.position());
+            }
+            pairs.endSample();
+            SamplePoint sp = new SamplePoint(id, xyz[0], xyz[1], xyz[2]);
+            samples.add(sp);
+        }
+        reader.endArray();
+    }
+
+    // Read {"x": .., "y": .., "z": ..} into xyz, false unless all three were present
+    private static boolean parseCoordinates(JsonReader reader, double[] xyz) {
+        xyz[0] = xyz[1] = xyz[2] = 0.0;
+        int seen = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int k = reader.nextName(XYZ_KEYS);
+            if (k >= 0) {
+                xyz[k] = reader.nextDouble();
+                seen |= 1 << k;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return seen == 7;
+    }
+
+    // Get Collision_matrix, packed row by row
+    private static CollisionMatrix parseCollisionMatrix(JsonReader reader) {
+        CollisionMatrix.Builder builder = new CollisionMatrix.Builder();
+        int[] buffer = new int[16];
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int len = 0;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (len == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, len * 2);
+                }
+                buffer[len++] = reader.nextInt();
+            }
+            reader.endArray();
+            builder.addRow(buffer, len);
+        }
+        reader.endArray();
+        return builder.build();
+    }
+}
+
+// GraphUtil : Graph related functions
+class GraphUtil {
+    // Check if the matrix is symmetric
+    static boolean isSymmetric(int[][] matrix) {
+        int n = matrix.length;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (matrix[i][j] != matrix[j][i]) {
+                    System.err.printf("⚠️ 矩阵不对称: [%d][%d]=%d, [%d][%d]=%d%n",
+                            i, j, matrix[i][j], j, i, matrix[j][i]);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Check if the packed matrix is symmetric
+    static boolean isSymmetric(CollisionMatrix matrix) {
+        return matrix.isSymmetric();
+    }
+
+    // Calculate the Euclidean distance between two viewpoints
+    static double euclideanDistance(Viewpoint a, Viewpoint b) {
+        double dx = a.x - b.x;
+        double dy = a.y - b.y;
+        double dz = a.z - b.z;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    // Construct the distance matrix from the collision matrix
+    static double[][] buildDistanceMatrix(List<Viewpoint> vps, CollisionMatrix collisionMatrix) {
+        int n = vps.size();
+        double[][] dist = new double[n][n];
+
+        for (int i = 0; i < n; i++) {
+            dist[i][i] = 0.0;
+            Viewpoint vi = vps.get(i);
+            for (int j = i + 1; j < n; j++) {
+                int val = collisionMatrix.get(i, j);
+                double d;
+                if (val == 1) {
+                    d = euclideanDistance(vi, vps.get(j));
+                } else if (val == -1) {
+                    d = Double.POSITIVE_INFINITY;
+                } else {
+                    d = 0.0;
+                }
+                dist[i][j] = dist[j][i] = d;
+            }
+        }
+        return dist;
+    }
+
+    // Same matrix as buildDistanceMatrix, rows are filled in parallel blocks on the common fork-join pool
+    static double[][] buildDistanceMatrixParallel(List<Viewpoint> vps, CollisionMatrix collisionMatrix) {
+        return buildDistanceMatrixParallel(vps, collisionMatrix, null);
+    }
+
+    // Same, filling the rows of reuse when it has exactly one row of length n per viewpoint
+    static double[][] buildDistanceMatrixParallel(List<Viewpoint> vps, CollisionMatrix collisionMatrix,
+                                                  double[][] reuse) {
+        int n = vps.size();
+        double[][] dist = reuse != null && reuse.length == n ? reuse : new double[n][];
+        // Contiguous coordinates instead of Viewpoint objects
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double[] zs = new double[n];
+        for (int i = 0; i < n; i++) {
+            Viewpoint vp = vps.get(i);
+            xs[i] = vp.x;
+            ys[i] = vp.y;
+            zs[i] = vp.z;
+        }
+        ForkJoinPool.commonPool().invoke(new DistanceRowTask(dist, xs, ys, zs, collisionMatrix, 0, n));
+        return dist;
+    }
+
+    // Fill one full distance row. Each row is independent, which lets the rows run in parallel.
+    // (-a)^2 == a^2 exactly, so computing both halves from row i matches the mirrored sequential result bit for bit.
+    static void fillDistanceRow(int i, double[] xs, double[] ys, double[] zs, CollisionMatrix cm,
+                                long[] feasible, long[] blocked, double[] out) {
+        int n = xs.length;
+        double xi = xs[i];
+        double yi = ys[i];
+        double zi = zs[i];
+        // Branch-free loop over primitive arrays, left for the JIT to vectorize
+        for (int j = 0; j < n; j++) {
+            double dx = xi - xs[j];
+            double dy = yi - ys[j];
+            double dz = zi - zs[j];
+            out[j] = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+        // Patch the entries that are not feasible: -1 -> INF, 0 -> 0.0
+        cm.mirroredFeasibleRow(i, feasible);
+        cm.mirroredBlockedRow(i, blocked);
+        int words = CollisionMatrix.words(n);
+        for (int w = 0; w < words; w++) {
+            long valid = w == words - 1 && (n & 63) != 0 ? (1L << (n & 63)) - 1 : -1L;
+            long patch = ~feasible[w] & valid;
+            while (patch != 0) {
+                int b = Long.numberOfTrailingZeros(patch);
+                out[(w << 6) + b] = (blocked[w] & (1L << b)) != 0 ? Double.POSITIVE_INFINITY : 0.0;
+                patch &= patch - 1;
+            }
+        }
+        out[i] = 0.0;
+    }
+
+    // DistanceRowTask : Split the rows of the distance matrix into blocks
+    static class DistanceRowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // Rows per leaf task
+        private static final int BLOCK_ROWS = 32;
+
+        private final double[][] dist;
+        private final double[] xs, ys, zs;
+        private final CollisionMatrix cm;
+        private final int from, to;
+
+        DistanceRowTask(double[][] dist, double[] xs, double[] ys, double[] zs, CollisionMatrix cm, int from, int to) {
+            this.dist = dist;
+            this.xs = xs;
+            this.ys = ys;
+            this.zs = zs;
+            this.cm = cm;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BLOCK_ROWS) {
+                int words = CollisionMatrix.words(xs.length);
+                long[] feasible = new long[words];
+                long[] blocked = new long[words];
+                for (int i = from; i < to; i++) {
+                    // Every entry gets written, so a row left from an earlier matrix can be filled again
+                    double[] row = dist[i] != null && dist[i].length == xs.length ? dist[i] : new double[xs.length];
+                    fillDistanceRow(i, xs, ys, zs, cm, feasible, blocked, row);
+                    dist[i] = row;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new DistanceRowTask(dist, xs, ys, zs, cm, from, mid),
+                    new DistanceRowTask(dist, xs, ys, zs, cm, mid, to));
+        }
+    }
+}
+
+// DistanceOracle : Distance between two viewpoints by index (INF when the edge is blocked)
+interface DistanceOracle {
+    // Number of viewpoints
+    int size();
+
+    // Distance from i to j
+    double get(int i, int j);
+
+    // All distances from i; may be shared or cached, so callers must not modify it
+    double[] row(int i);
+
+    // Recompute the distances to and from i after row i of the collision matrix changed
+    void patch(int i, List<Viewpoint> vps, CollisionMatrix cm);
+
+    // Whether some distance between two viewpoints is below their Euclidean distance (a 0.0 edge), so that a
+    // k-d tree must not prune by geometry
+    boolean hasFreeEdges();
+
+    // Pick the cheapest exact oracle that fits the heap: dense matrix if it takes at most a quarter of it
+    static DistanceOracle forInput(List<Viewpoint> vps, CollisionMatrix cm) {
+        return forInput(vps, cm, null);
+    }
+
+    static DistanceOracle forInput(List<Viewpoint> vps, CollisionMatrix cm, SolverWorkspace workspace) {
+        long n = vps.size();
+        long denseBytes = n * n * Double.BYTES;
+        if (denseBytes <= Runtime.getRuntime().maxMemory() / 4) {
+            return dense(vps, cm, workspace);
+        }
+        return new LazyDistanceOracle(vps, cm, LazyDistanceOracle.DEFAULT_CACHE_BYTES);
+    }
+
+    // Build an oracle of the requested kind ("auto", "dense", "float" or "lazy")
+    static DistanceOracle of(String kind, List<Viewpoint> vps, CollisionMatrix cm) {
+        return of(kind, vps, cm, null);
+    }
+
+    // Same, with the dense rows taken from and left in a workspace when there is one
+    static DistanceOracle of(String kind, List<Viewpoint> vps, CollisionMatrix cm, SolverWorkspace workspace) {
+        switch (kind) {
+            case "auto":
+                return forInput(vps, cm, workspace);
+            case "dense":
+                return dense(vps, cm, workspace);
+            case "float":
+                return new TriangularDistanceOracle(vps, cm, LazyDistanceOracle.DEFAULT_CACHE_BYTES);
+            case "lazy":
+                return new LazyDistanceOracle(vps, cm, LazyDistanceOracle.DEFAULT_CACHE_BYTES);
+            default:
+                throw new RuntimeException("Unknown distance oracle: " + kind);
+        }
+    }
+
+    private static DistanceOracle dense(List<Viewpoint> vps, CollisionMatrix cm, SolverWorkspace workspace) {
+        if (workspace == null) {
+            return new DenseDistanceOracle(GraphUtil.buildDistanceMatrixParallel(vps, cm), cm.hasFreeEdges());
+        }
+        double[][] rows = GraphUtil.buildDistanceMatrixParallel(vps, cm, workspace.distanceRows(vps.size()));
+        workspace.keepDistanceRows(rows);
+        return new DenseDistanceOracle(rows, cm.hasFreeEdges());
+    }
+}
+
+// DenseDistanceOracle : Full double[n][n] matrix
+class DenseDistanceOracle implements DistanceOracle {
+    private final double[][] dist;
+    private boolean freeEdges;
+
+    // Constructor; without the collision matrix any 0.0 off the diagonal counts as a free edge
+    DenseDistanceOracle(double[][] dist) {
+        this.dist = dist;
+        for (int i = 0; i < dist.length && !freeEdges; i++) {
+            for (int j = i + 1; j < dist.length; j++) {
+                if (dist[i][j] == 0.0) {
+                    freeEdges = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    DenseDistanceOracle(double[][] dist, boolean freeEdges) {
+        this.dist = dist;
+        this.freeEdges = freeEdges;
+    }
+
+    @Override
+    public int size() {
+        return dist.length;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        return dist[i][j];
+    }
+
+    @Override
+    public double[] row(int i) {
+        return dist[i];
+    }
+
+    // Same values as the full build: both halves from the upper triangle, computed from row i
+    @Override
+    public void patch(int i, List<Viewpoint> vps, CollisionMatrix cm) {
+        Viewpoint vi = vps.get(i);
+        for (int j = 0; j < dist.length; j++) {
+            double d = i == j ? 0.0 : LazyDistanceOracle.edge(cm.get(Math.min(i, j), Math.max(i, j)), vi, vps.get(j));
+            dist[i][j] = dist[j][i] = d;
+        }
+        freeEdges = cm.hasFreeEdges();
+    }
+
+    @Override
+    public boolean hasFreeEdges() {
+        return freeEdges;
+    }
+}
+
+// TriangularDistanceOracle : Upper triangle stored as float, half the entries at half the width
+class TriangularDistanceOracle implements DistanceOracle {
+    private final int n;
+    // Row i holds columns i+1..n-1
+    private final float[][] upper;
+    private final DistanceRowCache cache;
+    private boolean freeEdges;
+
+    // Constructor
+    TriangularDistanceOracle(List<Viewpoint> vps, CollisionMatrix cm, long cacheBytes) {
+        this.n = vps.size();
+        this.upper = new float[n][];
+        for (int i = 0; i < n; i++) {
+            Viewpoint vi = vps.get(i);
+            float[] r = new float[n - 1 - i];
+            for (int j = i + 1; j < n; j++) {
+                r[j - i - 1] = (float) LazyDistanceOracle.edge(cm.get(i, j), vi, vps.get(j));
+            }
+            upper[i] = r;
+        }
+        this.cache = new DistanceRowCache(n, cacheBytes, this::expandRow);
+        this.freeEdges = cm.hasFreeEdges();
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        if (i == j) return 0.0;
+        return i < j ? upper[i][j - i - 1] : upper[j][i - j - 1];
+    }
+
+    @Override
+    public double[] row(int i) {
+        return cache.get(i);
+    }
+
+    @Override
+    public void patch(int i, List<Viewpoint> vps, CollisionMatrix cm) {
+        Viewpoint vi = vps.get(i);
+        for (int j = 0; j < n; j++) {
+            if (j != i) {
+                float d = (float) LazyDistanceOracle.edge(cm.get(Math.min(i, j), Math.max(i, j)), vi, vps.get(j));
+                if (i < j) upper[i][j - i - 1] = d;
+                else upper[j][i - j - 1] = d;
+            }
+        }
+        // Every cached row has a column i
+        cache.clear();
+        freeEdges = cm.hasFreeEdges();
+    }
+
+    @Override
+    public boolean hasFreeEdges() {
+        return freeEdges;
+    }
+
+    private double[] expandRow(int i) {
+        double[] r = new double[n];
+        for (int j = 0; j < n; j++) {
+            r[j] = get(i, j);
+        }
+        return r;
+    }
+}
+
+// LazyDistanceOracle : Recompute distances from the coordinates and the collision matrix on demand
+class LazyDistanceOracle implements DistanceOracle {
+    // Default memory for cached rows
+    static final long DEFAULT_CACHE_BYTES = 64L << 20;
+
+    private final int n;
+    private final double[] xs, ys, zs;
+    private final CollisionMatrix cm;
+    private final DistanceRowCache cache;
+
+    // Constructor
+    LazyDistanceOracle(List<Viewpoint> vps, CollisionMatrix cm, long cacheBytes) {
+        this.n = vps.size();
+        this.xs = new double[n];
+        this.ys = new double[n];
+        this.zs = new double[n];
+        for (int i = 0; i < n; i++) {
+            Viewpoint vp = vps.get(i);
+            xs[i] = vp.x;
+            ys[i] = vp.y;
+            zs[i] = vp.z;
+        }
+        this.cm = cm;
+        this.cache = new DistanceRowCache(n, cacheBytes, this::computeRow);
+    }
+
+    // Same rule as GraphUtil.buildDistanceMatrix: 1 -> Euclidean, -1 -> INF, otherwise 0
+    static double edge(int val, Viewpoint a, Viewpoint b) {
+        if (val == 1) return GraphUtil.euclideanDistance(a, b);
+        if (val == -1) return Double.POSITIVE_INFINITY;
+        return 0.0;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        if (i == j) return 0.0;
+        // The matrix is read from the upper triangle only, like the dense builder
+        int a = Math.min(i, j);
+        int b = Math.max(i, j);
+        int val = cm.get(a, b);
+        if (val == 1) {
+            double dx = xs[a] - xs[b];
+            double dy = ys[a] - ys[b];
+            double dz = zs[a] - zs[b];
+            return Math.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+        if (val == -1) return Double.POSITIVE_INFINITY;
+        return 0.0;
+    }
+
+    @Override
+    public double[] row(int i) {
+        return cache.get(i);
+    }
+
+    // Distances are read from the matrix on every call, only the cached rows are stale
+    @Override
+    public void patch(int i, List<Viewpoint> vps, CollisionMatrix cm) {
+        if (cm != this.cm) {
+            throw new RuntimeException("LazyDistanceOracle: patched with another collision matrix");
+        }
+        cache.clear();
+    }
+
+    @Override
+    public boolean hasFreeEdges() {
+        return cm.hasFreeEdges();
+    }
+
+    private double[] computeRow(int i) {
+        double[] r = new double[n];
+        int words = CollisionMatrix.words(n);
+        GraphUtil.fillDistanceRow(i, xs, ys, zs, cm, new long[words], new long[words], r);
+        return r;
+    }
+}
+
+// DistanceRowCache : Bounded LRU cache of expanded distance rows
+// Rows are loaded outside the lock, so threads missing on different rows compute them in parallel
+class DistanceRowCache {
+    private final Map<Integer, double[]> rows;
+    private final IntFunction<double[]> loader;
+    // Bumped by clear(), a row loaded before it is not cached after it
+    private long generation;
+
+    // Constructor: keep as many rows of length n as fit into maxBytes (at least 2)
+    DistanceRowCache(int n, long maxBytes, IntFunction<double[]> loader) {
+        int capacity = (int) Math.max(2, Math.min(Math.max(n, 2), maxBytes / Math.max(1L, (long) n * Double.BYTES)));
+        this.loader = loader;
+        this.rows = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Cached row, loading it on a miss; when two threads load the same row, the first one cached wins
+    double[] get(int i) {
+        long loadedAt;
+        synchronized (this) {
+            double[] r = rows.get(i);
+            if (r != null) {
+                return r;
+            }
+            loadedAt = generation;
+        }
+        double[] r = loader.apply(i);
+        synchronized (this) {
+            if (loadedAt != generation) {
+                return r;
+            }
+            double[] cached = rows.putIfAbsent(i, r);
+            return cached != null ? cached : r;
+        }
+    }
+
+    synchronized void clear() {
+        rows.clear();
+        generation++;
+    }
+}
+
+// SolutionBuilder : Build the solution
+class SolutionBuilder {
+    public static void writeSolutionJson(
+            String outputPath,
+            TourPlanner.TourResult tourResult,
+            Map<Viewpoint, Set<String>> selected,
+            double precisionValue,
+            int numViewpoints
+    ) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+
+        // ===== metadata =====
+        sb.append("  \"metadata\": {\n");
+        sb.append("    \"num_viewpoints\": ").append(numViewpoints).append(",\n");
+        sb.append("    \"objective\": {\n");
+        sb.append("      \"distance\": ").append(tourResult.totalDistance).append(",\n");
+        sb.append("      \"precision\": ").append(precisionValue).append("\n");
+        sb.append("    }\n");
+        sb.append("  },\n");
+
+        // ===== sequence =====
+        sb.append("  \"sequence\": [\n");
+        List<Viewpoint> seq = tourResult.tour;
+        for (int i = 0; i < seq.size(); i++) {
+            Viewpoint vp = seq.get(i);
+            sb.append("    {\n");
+            sb.append("      \"id\": \"").append(vp.id).append("\",\n");
+            sb.append("      \"angles\": [");
+            Set<String> angles = selected.get(vp);
+            if (angles != null && !angles.isEmpty()) {
+                int c = 0;
+                for (String a : angles) {
+                    if (c > 0) sb.append(", ");
+                    sb.append("\"").append(a).append("\"");
+                    c++;
+                }
+            }
+            sb.append("]\n");
+            sb.append("    }");
+            if (i != seq.size() - 1) sb.append(",");
+            sb.append("\n");
+        }
+        sb.append("  ]\n");
+        sb.append("}\n");
+        // Write to file (Only for Debugging)
+        // try (FileWriter fw = new FileWriter(outputPath, false)) {
+        //     //fw.write(sb.toString());
+        //     System.out.println(sb.toString());
+        // }
+        // Print result to stdout
+        System.out.println(sb);
+    }
+}
+
+// SolutionWriter : Stream the solution JSON into a buffered channel, byte-identical to SolutionBuilder
+class SolutionWriter implements AutoCloseable {
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final byte[] HEAD = ascii("{\n  \"metadata\": {\n    \"num_viewpoints\": ");
+    private static final byte[] DISTANCE = ascii(",\n    \"objective\": {\n      \"distance\": ");
+    private static final byte[] PRECISION = ascii(",\n      \"precision\": ");
+    private static final byte[] SEQUENCE = ascii("\n    }\n  },\n  \"sequence\": [\n");
+    private static final byte[] ID = ascii("    {\n      \"id\": \"");
+    private static final byte[] ANGLES = ascii("\",\n      \"angles\": [");
+    private static final byte[] ANGLE_SEPARATOR = ascii(", ");
+    private static final byte[] ITEM_END = ascii("]\n    }");
+    private static final byte[] TAIL = ascii("  ]\n}\n" + System.lineSeparator());
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES);
+    private long written;
+    // Quoted angle ids by direction ordinal of the last store seen
+    private ViewpointStore tableStore;
+    private byte[][] angleTable;
+
+    private SolutionWriter(WritableByteChannel channel, boolean closeChannel) {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+    }
+
+    // Standard output, left open on close
+    static SolutionWriter toStdout() {
+        System.out.flush();
+        return new SolutionWriter(new FileOutputStream(FileDescriptor.out).getChannel(), false);
+    }
+
+    // Any channel, left open on close
+    static SolutionWriter to(WritableByteChannel channel) {
+        return new SolutionWriter(channel, false);
+    }
+
+    static SolutionWriter toFile(String path) {
+        try {
+            return new SolutionWriter(FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open output file: " + path, e);
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    void write(
+            TourPlanner.TourResult tourResult,
+            Map<Viewpoint, Set<String>> selected,
+            double precisionValue,
+            int numViewpoints
+    ) {
+        long writtenBefore = written;
+        // ===== metadata =====
+        put(HEAD);
+        putInt(numViewpoints);
+        put(DISTANCE);
+        // Double.toString keeps the digits identical to the StringBuilder output
+        putString(Double.toString(tourResult.totalDistance));
+        put(PRECISION);
+        putString(Double.toString(precisionValue));
+        put(SEQUENCE);
+
+        // ===== sequence =====
+        List<Viewpoint> seq = tourResult.tour;
+        int i = 0;
+        for (Viewpoint vp : seq) {
+            put(ID);
+            putString(vp.id);
+            put(ANGLES);
+            Set<String> angles = selected.get(vp);
+            if (angles != null && !angles.isEmpty()) {
+                int c = 0;
+                for (String a : angles) {
+                    if (c > 0) put(ANGLE_SEPARATOR);
+                    put(angle(vp.store, a));
+                    c++;
+                }
+            }
+            put(ITEM_END);
+            if (i != seq.size() - 1) putByte((byte) ',');
+            putByte((byte) '\n');
+            i++;
+        }
+        put(TAIL);
+        flush();
+        SolverMetrics.count("bytes_written", written - writtenBefore);
+    }
+
+    // Quoted angle id from the table of the viewpoint's store, encoded on the spot for unknown ids
+    private byte[] angle(ViewpointStore store, String a) {
+        if (store != tableStore) {
+            tableStore = store;
+            angleTable = null;
+            if (store != null) {
+                angleTable = new byte[store.numDirections()][];
+                for (int d = 0; d < angleTable.length; d++) {
+                    angleTable[d] = ascii("\"" + store.directionIds[d] + "\"");
+                }
+            }
+        }
+        int d = store == null ? -1 : store.directionOrdinal(a);
+        return d >= 0 ? angleTable[d] : ascii("\"" + a + "\"");
+    }
+
+    private void put(byte[] bytes) {
+        if (bytes.length > buf.remaining()) {
+            flush();
+            if (bytes.length > buf.remaining()) {
+                writeFully(ByteBuffer.wrap(bytes));
+                return;
+            }
+        }
+        buf.put(bytes);
+    }
+
+    private void putByte(byte b) {
+        if (!buf.hasRemaining()) {
+            flush();
+        }
+        buf.put(b);
+    }
+
+    // ASCII strings byte by byte, anything else through UTF-8
+    private void putString(String s) {
+        int len = s.length();
+        for (int k = 0; k < len; k++) {
+            if (s.charAt(k) >= 0x80) {
+                put(s.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        if (len > buf.remaining()) {
+            flush();
+        }
+        if (len > buf.remaining()) {
+            put(ascii(s));
+            return;
+        }
+        for (int k = 0; k < len; k++) {
+            buf.put((byte) s.charAt(k));
+        }
+    }
+
+    // Decimal digits of an int, same as StringBuilder.append(int)
+    private void putInt(int v) {
+        if (buf.remaining() < 11) {
+            flush();
+        }
+        if (v == Integer.MIN_VALUE) {
+            putString(Integer.toString(v));
+            return;
+        }
+        if (v < 0) {
+            buf.put((byte) '-');
+            v = -v;
+        }
+        int start = buf.position();
+        do {
+            buf.put((byte) ('0' + v % 10));
+            v /= 10;
+        } while (v != 0);
+        // Digits were written least significant first
+        for (int lo = start, hi = buf.position() - 1; lo < hi; lo++, hi--) {
+            byte t = buf.get(lo);
+            buf.put(lo, buf.get(hi));
+            buf.put(hi, t);
+        }
+    }
+
+    void flush() {
+        buf.flip();
+        writeFully(buf);
+        buf.clear();
+    }
+
+    private void writeFully(ByteBuffer src) {
+        try {
+            while (src.hasRemaining()) {
+                written += channel.write(src);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write solution", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (closeChannel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot close solution output", e);
+            }
+        }
+    }
+}
+
+// SolverMetrics : Per-run phase timings, allocated bytes, GC activity and counters, reported as one JSON line
+// A run records only after start() on its thread; otherwise each call is a ThreadLocal lookup, made once per
+// phase and never inside the algorithms' loops, which keep their own plain counters
+class SolverMetrics {
+    private static final ThreadLocal<SolverMetrics> CURRENT = new ThreadLocal<>();
+    private static final ThreadMXBean THREADS =
+            ManagementFactory.getThreadMXBean();
+
+    private final long runStart = System.nanoTime();
+    private final StringBuilder phases = new StringBuilder();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private final Map<String, Double> results = new LinkedHashMap<>();
+    private String phase;
+    private long phaseStart, threadAlloc, jvmAlloc, gcCount, gcMs;
+
+    // Start recording on the current thread
+    static void start() {
+        CURRENT.set(new SolverMetrics());
+    }
+
+    static boolean enabled() {
+        return CURRENT.get() != null;
+    }
+
+    // End the current phase, if any, and begin the next one
+    static void phase(String name) {
+        SolverMetrics m = CURRENT.get();
+        if (m != null) {
+            m.endPhase();
+            m.beginPhase(name);
+        }
+    }
+
+    // Add to a counter of the current phase and to the cumulative SolverCounters
+    static void count(String name, long delta) {
+        SolverCounters.add(name, delta);
+        SolverMetrics m = CURRENT.get();
+        if (m != null) {
+            m.counters.merge(name, delta, Long::sum);
+        }
+    }
+
+    // Record a run-level value such as the objective
+    static void result(String name, double value) {
+        SolverMetrics m = CURRENT.get();
+        if (m != null) {
+            m.results.put(name, value);
+        }
+    }
+
+    // Stop recording and return the JSON line, null when not recording
+    static String finish() {
+        SolverMetrics m = CURRENT.get();
+        if (m == null) {
+            return null;
+        }
+        CURRENT.remove();
+        m.endPhase();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"phases\":[").append(m.phases).append("],\"total_ns\":").append(System.nanoTime() - m.runStart)
+                .append(",\"peak_rss_kb\":").append(peakRssKb());
+        m.results.forEach((k, v) -> sb.append(",\"").append(k).append("\":").append(v));
+        return sb.append('}').toString();
+    }
+
+    // Finish and write the line to stderr or append it to a file
+    static void report(String target) {
+        String line = finish();
+        if (line == null) {
+            return;
+        }
+        if (target.equals("stderr")) {
+            System.err.println(line);
+            return;
+        }
+        try {
+            Files.write(Paths.get(target), (line + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write metrics to " + target, e);
+        }
+    }
+
+    private void beginPhase(String name) {
+        phase = name;
+        threadAlloc = threadAllocatedBytes();
+        jvmAlloc = jvmAllocatedBytes();
+        gcCount = 0;
+        gcMs = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMs += Math.max(0, gc.getCollectionTime());
+        }
+        phaseStart = System.nanoTime();
+    }
+
+    private void endPhase() {
+        if (phase == null) {
+            return;
+        }
+        long ns = System.nanoTime() - phaseStart;
+        long collections = 0, collectionMs = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += Math.max(0, gc.getCollectionCount());
+            collectionMs += Math.max(0, gc.getCollectionTime());
+        }
+        if (phases.length() > 0) phases.append(',');
+        phases.append("{\"name\":\"").append(phase).append("\",\"ns\":").append(ns)
+                .append(",\"alloc_bytes\":").append(threadAllocatedBytes() - threadAlloc)
+                .append(",\"alloc_bytes_jvm\":").append(jvmAllocatedBytes() - jvmAlloc)
+                .append(",\"gc_count\":").append(collections - gcCount)
+                .append(",\"gc_ms\":").append(collectionMs - gcMs)
+                .append(",\"peak_rss_kb\":").append(peakRssKb())
+                .append(",\"counters\":{");
+        int c = 0;
+        for (Map.Entry<String, Long> e : counters.entrySet()) {
+            if (c++ > 0) phases.append(',');
+            phases.append('"').append(e.getKey()).append("\":").append(e.getValue());
+        }
+        phases.append("}}");
+        counters.clear();
+        phase = null;
+    }
+
+    // Bytes allocated by this thread, -1 if the JVM cannot tell
+    private static long threadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    // Bytes allocated by all live threads, which includes the fork-join workers of parallel phases
+    private static long jvmAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            long total = 0;
+            for (long bytes : ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+                total += Math.max(0, bytes);
+            }
+            return total;
+        }
+        return -1;
+    }
+
+    // High-water mark of the resident set from /proc, -1 where it is not available
+    static long peakRssKb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not on Linux
+        }
+        return -1;
+    }
+}
+
+// SolverCounters : Cumulative counters of every run in this JVM, exposed as the MBean aads:type=SolverCounters
+// A DynamicMBean publishes whichever counters exist, so no public MBean interface is needed
+class SolverCounters implements DynamicMBean {
+    static final String OBJECT_NAME = "aads:type=SolverCounters";
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static boolean registered;
+
+    static void add(String name, long delta) {
+        COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    static long get(String name) {
+        LongAdder adder = COUNTERS.get(name);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    // Register with the platform MBean server, once
+    static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new SolverCounters(), new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (JMException e) {
+            throw new RuntimeException("Cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if (!COUNTERS.containsKey(attribute)) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return get(attribute);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Counters are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            if (COUNTERS.containsKey(name)) {
+                list.add(new Attribute(name, get(name)));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("reset")) {
+            COUNTERS.values().forEach(LongAdder::reset);
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<String> names = new ArrayList<>(COUNTERS.keySet());
+        Collections.sort(names);
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[names.size()];
+        for (int i = 0; i < attributes.length; i++) {
+            attributes[i] = new MBeanAttributeInfo(
+                    names.get(i), "long", "Cumulative " + names.get(i), true, false, false);
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo(
+                "reset", "Set every counter back to zero", new MBeanParameterInfo[0],
+                "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(SolverCounters.class.getName(), "AADS solver counters",
+                attributes, null, new MBeanOperationInfo[]{reset}, null);
+    }
+}
+
+// NearestNeighbourStepEvent : JFR event for one step of the nearest-neighbour tour
+@Name("aads.NearestNeighbourStep")
+@Label("Nearest Neighbour Step")
+@Category({"AADS", "Tour"})
+class NearestNeighbourStepEvent extends Event {
+    @Label("From")
+    String from;
+    @Label("To")
+    String to;
+    @Label("Distance")
+    double distance;
+    @Label("Reachable")
+    @Description("False when every remaining viewpoint was behind an INF edge")
+    boolean reachable;
+    @Label("Distance Evaluations")
+    @Description("Candidates whose distance the k-d tree query looked up")
+    int evaluations;
+    @Label("Remaining")
+    int remaining;
+}
+
+// GreedyPickEvent : JFR event for one pick of the lazy greedy direction selection
+@Name("aads.GreedyPick")
+@Label("Greedy Pick")
+@Category({"AADS", "Selection"})
+class GreedyPickEvent extends Event {
+    @Label("Viewpoint")
+    String viewpoint;
+    @Label("Direction")
+    String direction;
+    @Label("Gain")
+    double gain;
+    @Label("Cover")
+    @Description("Unsatisfied samples the pick covers")
+    int cover;
+    @Label("Heap Pops")
+    @Description("Heap pops spent on this pick, stale entries included")
+    long heapPops;
+    @Label("Unsatisfied")
+    @Description("Samples still short of coverage after the pick")
+    int unsatisfied;
+}
+
+// RepairSpliceEvent : JFR event for one detour spliced into an INF edge of the tour
+@Name("aads.RepairSplice")
+@Label("Repair Splice")
+@Category({"AADS", "Tour"})
+class RepairSpliceEvent extends Event {
+    @Label("From")
+    String from;
+    @Label("To")
+    String to;
+    @Label("Strategy")
+    String strategy;
+    @Label("Hops")
+    @Description("Edges in the detour that replaces the INF edge")
+    int hops;
+    @Label("Scan Cost")
+    @Description("Nodes Dijkstra settled until it reached the target, or bitset words scanned by the relay search")
+    long scanCost;
+}
+
+// CoverageLedger : Cover counts per sample for a set of selected (viewpoint, direction) pairs on the CSR index
+// Adding or removing a pair touches only the samples it covers; recount() rebuilds everything from the selection
+class CoverageLedger {
+    // Cover a sample needs, or all of its pairs when it has fewer
+    static final int REQUIRED = 3;
+
+    final CoverageIndex index;
+    // Distinct selected pairs covering each sample
+    private final int[] cover;
+    // Cover each sample can reach: min(REQUIRED, distinct pairs with a precision covering it)
+    private final int[] required;
+    // Selection bit per pair
+    private final long[] selected;
+    // Samples per cover level, sized by the largest possible cover
+    private final int[] histogram;
+    private int selectedPairs;
+    private int shortSamples;                   // samples with cover < required
+    private long totalCover;
+
+    // Constructor: nothing selected
+    CoverageLedger(CoverageIndex index, ViewpointStore store) {
+        this(index, store, new long[CollisionMatrix.words(index.numPairs)]);
+    }
+
+    // Constructor: take over a selection bitset and count it. Pairs without a precision can never be
+    // selected, so they do not count towards what a sample requires.
+    CoverageLedger(CoverageIndex index, ViewpointStore store, long[] selected) {
+        this.index = index;
+        this.cover = new int[index.numSamples];
+        this.required = new int[index.numSamples];
+        this.selected = selected;
+        int[] pairs = new int[index.numSamples];
+        for (int p = 0; p < index.numPairs; p++) {
+            boolean usable = !Double.isNaN(store.precision(index.viewpointOf(p), index.directionOf(p)));
+            for (int k = index.pairStart[p]; k < index.pairStart[p + 1]; k++) {
+                pairs[index.pairSamples[k]]++;
+                if (usable) {
+                    required[index.pairSamples[k]]++;
+                }
+            }
+        }
+        int maxLevel = 0;
+        for (int s = 0; s < index.numSamples; s++) {
+            maxLevel = Math.max(maxLevel, pairs[s]);
+            required[s] = Math.min(REQUIRED, required[s]);
+        }
+        this.histogram = new int[maxLevel + 1];
+        recount();
+    }
+
+    boolean isSelected(int pair) {
+        return (selected[pair >>> 6] & (1L << pair)) != 0;
+    }
+
+    // Select a pair, false if it already was
+    boolean add(int pair) {
+        if (isSelected(pair)) {
+            return false;
+        }
+        selected[pair >>> 6] |= 1L << pair;
+        selectedPairs++;
+        for (int k = index.pairStart[pair]; k < index.pairStart[pair + 1]; k++) {
+            int s = index.pairSamples[k];
+            int c = cover[s]++;
+            histogram[c]--;
+            histogram[c + 1]++;
+            if (c + 1 == required[s]) {
+                shortSamples--;
+            }
+        }
+        totalCover += index.coverCount(pair);
+        return true;
+    }
+
+    // Deselect a pair, false if it was not selected
+    boolean remove(int pair) {
+        if (!isSelected(pair)) {
+            return false;
+        }
+        selected[pair >>> 6] &= ~(1L << pair);
+        selectedPairs--;
+        for (int k = index.pairStart[pair]; k < index.pairStart[pair + 1]; k++) {
+            int s = index.pairSamples[k];
+            int c = cover[s]--;
+            histogram[c]--;
+            histogram[c - 1]++;
+            if (c == required[s]) {
+                shortSamples++;
+            }
+        }
+        totalCover -= index.coverCount(pair);
+        return true;
+    }
+
+    // Rebuild every count from the selection bits, pair by pair: the samples of a pair are distinct, so a
+    // sample listing a pair twice still counts it once, and only the selected pairs are visited
+    void recount() {
+        Arrays.fill(cover, 0);
+        int count = 0;
+        for (int w = 0; w < selected.length; w++) {
+            for (long bits = selected[w]; bits != 0; bits &= bits - 1) {
+                int pair = (w << 6) + Long.numberOfTrailingZeros(bits);
+                for (int k = index.pairStart[pair]; k < index.pairStart[pair + 1]; k++) {
+                    cover[index.pairSamples[k]]++;
+                }
+                count++;
+            }
+        }
+        selectedPairs = count;
+        Arrays.fill(histogram, 0);
+        shortSamples = 0;
+        totalCover = 0;
+        for (int s = 0; s < index.numSamples; s++) {
+            histogram[cover[s]]++;
+            totalCover += cover[s];
+            if (cover[s] < required[s]) {
+                shortSamples++;
+            }
+        }
+    }
+
+    int cover(int sample) {
+        return cover[sample];
+    }
+
+    int required(int sample) {
+        return required[sample];
+    }
+
+    int selectedPairs() {
+        return selectedPairs;
+    }
+
+    // Samples whose cover is below their required cover
+    int shortSamples() {
+        return shortSamples;
+    }
+
+    // Samples covered fewer than level times
+    int samplesBelow(int level) {
+        int n = 0;
+        for (int c = 0; c < Math.min(level, histogram.length); c++) {
+            n += histogram[c];
+        }
+        return n;
+    }
+
+    int minCover() {
+        for (int c = 0; c < histogram.length; c++) {
+            if (histogram[c] > 0) return c;
+        }
+        return 0;
+    }
+
+    int maxCover() {
+        for (int c = histogram.length - 1; c > 0; c--) {
+            if (histogram[c] > 0) return c;
+        }
+        return 0;
+    }
+
+    double averageCover() {
+        return index.numSamples == 0 ? 0 : (double) totalCover / index.numSamples;
+    }
+
+    // Change the cover a sample requires, e.g. when some of its pairs can no longer be selected
+    void setRequired(int sample, int pairs) {
+        boolean wasShort = cover[sample] < required[sample];
+        required[sample] = Math.min(REQUIRED, pairs);
+        boolean isShort = cover[sample] < required[sample];
+        if (wasShort != isShort) {
+            shortSamples += isShort ? 1 : -1;
+        }
+    }
+
+    // Samples per cover level
+    int[] histogram() {
+        return histogram.clone();
+    }
+}
+
+// CoverageChecker : Check the coverage of the solution
+class CoverageChecker {
+    // Check if the selected directions are valid
+    static void checkSelectedDirectionsValid(Map<Viewpoint, Set<String>> selected) {
+        int totalVp = selected.size();
+        int totalDirs = 0;
+        int invalidInPrecision = 0;
+        for (Map.Entry<Viewpoint, Set<String>> entry : selected.entrySet()) {
+            Viewpoint vp = entry.getKey();
             Set<String> dirIds = entry.getValue();
             if (vp == null || dirIds == null) {
                 continue;
             }
-            totalDirs += dirIds.size();
-            Map<String, Double> precisionMap = vp.precision;
-            for (String dirId : dirIds) {
-                if (precisionMap == null || !precisionMap.containsKey(dirId)) {
-                    invalidInPrecision++;
-                    System.out.println("Invalid direction: " + "vpId=" + vp.id + ", dirId=" + dirId);
+            totalDirs += dirIds.size();
+            Map<String, Double> precisionMap = vp.precision;
+            for (String dirId : dirIds) {
+                if (precisionMap == null || !precisionMap.containsKey(dirId)) {
+                    invalidInPrecision++;
+                    System.out.println("Invalid direction: " + "vpId=" + vp.id + ", dirId=" + dirId);
+                }
+            }
+        }
+        System.out.println("Viewpoints: " + totalVp);
+        System.out.println("Selected directions: " + totalDirs);
+        System.out.println("Invalid directions: " + invalidInPrecision);
+    }
+
+    // Check if the samples are covered at least 3 times
+    static void checkSampleCoverage(
+            Map<Viewpoint, Set<String>> selected,
+            List<SamplePoint> samplePoints
+    ) {
+        ViewpointStore store = null;
+        for (Viewpoint vp : selected.keySet()) {
+            if (vp != null && vp.store != null) {
+                store = vp.store;
+                break;
+            }
+        }
+        if (store == null) {
+            store = ViewpointStore.of(new ArrayList<>(selected.keySet()), new ArrayList<>());
+        }
+        checkSampleCoverage(selected, samplePoints, CoverageIndex.of(samplePoints, store), store);
+    }
+
+    // Same check on the shared CSR index
+    static void checkSampleCoverage(
+            Map<Viewpoint, Set<String>> selected,
+            List<SamplePoint> samplePoints,
+            CoverageIndex index,
+            ViewpointStore store
+    ) {
+        // Mark selected (vp, dir) pairs
+        long[] chosen = new long[CollisionMatrix.words(index.numPairs)];
+        for (Map.Entry<Viewpoint, Set<String>> entry : selected.entrySet()) {
+            Viewpoint vp = entry.getKey();
+            Set<String> dirIds = entry.getValue();
+            if (dirIds == null || vp == null) {
+                continue;
+            }
+            for (String dirId : dirIds) {
+                int dir = store.directionOrdinal(dirId);
+                if (dir >= 0) {
+                    int pair = index.pairId(vp.index, dir);
+                    chosen[pair >>> 6] |= 1L << pair;
+                }
+            }
+        }
+        // Every listed occurrence of a selected pair counts, as the report always did
+        int totalSamples = index.numSamples;
+        int coveredAtLeast3 = 0;
+        int lessThan3 = 0;
+        int zeroCovered = 0;
+        int maxCover = 0;
+        long sumCover = 0;
+        List<String> badSamples = new ArrayList<>();
+        for (int s = 0; s < totalSamples; s++) {
+            int coverCount = 0;
+            for (int k = index.sampleStart[s]; k < index.sampleStart[s + 1]; k++) {
+                int pair = index.samplePairs[k];
+                if ((chosen[pair >>> 6] & (1L << pair)) != 0) {
+                    coverCount++;
+                }
+            }
+            sumCover += coverCount;
+            maxCover = Math.max(maxCover, coverCount);
+            if (coverCount >= 3) {
+                coveredAtLeast3++;
+            } else {
+                lessThan3++;
+                if (coverCount == 0) {
+                    zeroCovered++;
+                    badSamples.add(samplePoints.get(s).id + " (cover=0, possible=" + index.pairCount(s) + ")");
+                }
+            }
+        }
+        double avgCover = totalSamples == 0 ? 0 : (double) sumCover / totalSamples;
+        System.out.println("SamplePoints: " + totalSamples);
+        System.out.println("Coverage over 3: " + coveredAtLeast3);
+        System.out.println("Coverage below 3: " + lessThan3);
+        System.out.println("Zero covered sp: " + zeroCovered);
+        System.out.println("Maximum Coverage: " + maxCover);
+        System.out.println("Average Coverage: " + String.format("%.3f", avgCover));
+        if (!badSamples.isEmpty()) {
+            System.out.println("Samples that have been covered less than 3 times(format: id(cover, possible)):");
+            for (String s : badSamples) {
+                System.out.println("  " + s);
+            }
+        }
+    }
+
+    // Problems of a solution, empty when it is valid: selected directions without a precision,
+    // samples short of their required cover, and an empty, open or infeasible tour
+    static List<String> validate(InputData data, Map<Viewpoint, Set<String>> selected, List<Viewpoint> tour) {
+        List<String> problems = new ArrayList<>();
+        ViewpointStore store = data.store;
+        CoverageIndex index = data.coverage;
+        long[] chosen = new long[CollisionMatrix.words(index.numPairs)];
+        for (Map.Entry<Viewpoint, Set<String>> entry : selected.entrySet()) {
+            Viewpoint vp = entry.getKey();
+            for (String dirId : entry.getValue()) {
+                int dir = store.directionOrdinal(dirId);
+                if (dir < 0 || Double.isNaN(store.precision[vp.index * store.numDirections() + dir])) {
+                    problems.add("Invalid direction: vpId=" + vp.id + ", dirId=" + dirId);
+                    continue;
+                }
+                int pair = index.pairId(vp.index, dir);
+                chosen[pair >>> 6] |= 1L << pair;
+            }
+        }
+        CoverageLedger ledger = new CoverageLedger(index, store, chosen);
+        SolverMetrics.result("short_samples", ledger.shortSamples());
+        SolverMetrics.result("min_cover", ledger.minCover());
+        if (ledger.shortSamples() > 0) {
+            int first = 0;
+            while (ledger.cover(first) >= ledger.required(first)) {
+                first++;
+            }
+            problems.add(ledger.shortSamples() + " samples below their required cover, first "
+                    + data.samplePoints.get(first).id + " (cover=" + ledger.cover(first)
+                    + ", required=" + ledger.required(first) + ")");
+        }
+        problems.addAll(tourProblems(tour, data.collisionMatrix));
+        return problems;
+    }
+
+    // Problems of a tour: empty, not closed or with an infeasible transition
+    static List<String> tourProblems(List<Viewpoint> tour, CollisionMatrix cm) {
+        List<String> problems = new ArrayList<>();
+        if (tour == null || tour.isEmpty()) {
+            problems.add("Tour is empty.");
+            return problems;
+        }
+        if (!tour.get(0).equals(tour.get(tour.size() - 1))) {
+            problems.add("Tour is not closed (first != last).");
+        }
+        for (int i = 0; i + 1 < tour.size(); i++) {
+            int a = tour.get(i).index;
+            int b = tour.get(i + 1).index;
+            if (!cm.isFeasible(a, b)) {
+                problems.add(String.format("Illegal transition: %d → %d (cm=%d)", a, b, cm.get(a, b)));
+            }
+        }
+        return problems;
+    }
+}
+
+// DirectionSelector : Select directions based on global contribution
+class DirectionSelector {
+    // Maximizing contribution to both precision and coverage until all sample points are covered at least 3 times
+    static Map<Viewpoint, Set<String>> selectDirections(
+            List<Viewpoint> viewpoints,
+            List<SamplePoint> samples
+    ) {
+        ViewpointStore store = viewpoints.isEmpty() || viewpoints.get(0).store == null
+                ? ViewpointStore.of(viewpoints, new ArrayList<>())
+                : viewpoints.get(0).store;
+        return selectDirections(viewpoints, store, CoverageIndex.of(samples, store));
+    }
+
+    static Map<Viewpoint, Set<String>> selectDirections(
+            List<Viewpoint> viewpoints,
+            ViewpointStore store,
+            CoverageIndex index
+    ) {
+        return selectDirections(viewpoints, store, index, DEFAULT_CANDIDATES_PER_SAMPLE);
+    }
+
+    // Default number of candidate pairs kept per sample
+    static final int DEFAULT_CANDIDATES_PER_SAMPLE = 3;
+    // Samples per work chunk in the candidate phase
+    private static final int CANDIDATE_CHUNK = 4096;
+
+    static Map<Viewpoint, Set<String>> selectDirections(
+            List<Viewpoint> viewpoints,
+            ViewpointStore store,
+            CoverageIndex index,
+            int candidatesPerSample
+    ) {
+        return selectDirections(viewpoints, store, index, candidatesPerSample, null, Double.POSITIVE_INFINITY);
+    }
+
+    // Covering picks, then the remaining candidates worth their detour for the objective at lambda
+    static Map<Viewpoint, Set<String>> selectDirections(
+            List<Viewpoint> viewpoints,
+            ViewpointStore store,
+            CoverageIndex index,
+            int candidatesPerSample,
+            DistanceOracle dist,
+            double lambda
+    ) {
+        return fill(cover(viewpoints, store, index, candidatesPerSample), dist, lambda);
+    }
+
+    // Cover : Candidate pairs and the greedy picks that cover every sample, the part that does not depend on lambda
+    static class Cover {
+        final List<Viewpoint> viewpoints;
+        final Viewpoint[] viewpointByIndex;
+        final ViewpointStore store;
+        final CoverageIndex index;
+        final int[] candidates;
+        final int[] picked;
+
+        Cover(List<Viewpoint> viewpoints, Viewpoint[] viewpointByIndex, ViewpointStore store, CoverageIndex index,
+              int[] candidates, int[] picked) {
+            this.viewpoints = viewpoints;
+            this.viewpointByIndex = viewpointByIndex;
+            this.store = store;
+            this.index = index;
+            this.candidates = candidates;
+            this.picked = picked;
+        }
+    }
+
+    static Cover cover(
+            List<Viewpoint> viewpoints,
+            ViewpointStore store,
+            CoverageIndex index,
+            int candidatesPerSample
+    ) {
+        // Build viewpoint map index -> Viewpoint
+        Viewpoint[] viewpointByIndex = new Viewpoint[store.size];
+        for (Viewpoint vp : viewpoints) {
+            viewpointByIndex[vp.index] = vp;
+        }
+
+        // Find high precision directions for each sample as candidate
+        long[] candidate = extractCandidates(index, store, viewpointByIndex, candidatesPerSample);
+
+        // Lazy greedy (CELF) on marginal gains until all sample points are covered at least 3 times
+        int count = 0;
+        for (long word : candidate) {
+            count += Long.bitCount(word);
+        }
+        int[] candidates = new int[count];
+        count = 0;
+        for (int w = 0; w < candidate.length; w++) {
+            for (long bits = candidate[w]; bits != 0; bits &= bits - 1) {
+                candidates[count++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        LazyGreedySelector engine = new LazyGreedySelector(index, store, 3);
+        int[] picked = engine.select(candidates);
+        SolverMetrics.count("candidates", candidates.length);
+        SolverMetrics.count("greedy_picks", picked.length);
+        SolverMetrics.count("heap_pops", engine.heapPops);
+        SolverMetrics.count("gain_evaluations", engine.evaluations);
+        SolverMetrics.count("unsatisfied_samples", engine.unsatisfied);
+        return new Cover(viewpoints, viewpointByIndex, store, index, candidates, picked);
+    }
+
+    // Directions of the cover plus the remaining positive candidates worth it at lambda. A pair at a viewpoint the
+    // tour visits anyway is free; a new viewpoint joins when lambda times the precision of its remaining pairs
+    // beats twice its distance to the nearest visited viewpoint. An infinite lambda takes every positive
+    // candidate and needs no distances.
+    static Map<Viewpoint, Set<String>> fill(Cover cover, DistanceOracle dist, double lambda) {
+        ViewpointStore store = cover.store;
+        CoverageIndex index = cover.index;
+        Viewpoint[] viewpointByIndex = cover.viewpointByIndex;
+
+        // Final selected directions grouped by viewpoint
+        Map<Viewpoint, Set<String>> result = new HashMap<>();
+        boolean[] taken = new boolean[index.numPairs];
+        for (int pair : cover.picked) {
+            taken[pair] = true;
+            addPair(result, viewpointByIndex, store, index, pair);
+        }
+        boolean[] accepted = lambda == Double.POSITIVE_INFINITY
+                ? null
+                : acceptedViewpoints(cover, taken, result.keySet(), dist, lambda);
+        // Add the remaining positive contribution (precision * coverCount) directions to result
+        int filled = 0;
+        for (int pair : cover.candidates) {
+            if (!taken[pair] && store.precision(index.viewpointOf(pair), index.directionOf(pair)) * index.coverCount(pair) > 0
+                    && (accepted == null || accepted[index.viewpointOf(pair)])) {
+                addPair(result, viewpointByIndex, store, index, pair);
+                filled++;
+            }
+        }
+        SolverMetrics.count("fill_picks", filled);
+        return inIndexOrder(result);
+    }
+
+    // The same selection in a map that iterates in viewpoint index order, so that the routes and sums built
+    // over it do not follow the identity hashes of the viewpoints
+    static Map<Viewpoint, Set<String>> inIndexOrder(Map<Viewpoint, Set<String>> selected) {
+        List<Viewpoint> vps = new ArrayList<>(selected.keySet());
+        vps.sort(Comparator.comparingInt(vp -> vp.index));
+        Map<Viewpoint, Set<String>> ordered = new LinkedHashMap<>();
+        for (Viewpoint vp : vps) {
+            ordered.put(vp, selected.get(vp));
+        }
+        return ordered;
+    }
+
+    // Viewpoints whose remaining positive candidates pay off at a finite lambda, by viewpoint index
+    private static boolean[] acceptedViewpoints(Cover cover, boolean[] taken, Set<Viewpoint> selected,
+                                                DistanceOracle dist, double lambda) {
+        ViewpointStore store = cover.store;
+        CoverageIndex index = cover.index;
+        boolean[] accepted = new boolean[store.size];
+        if (lambda <= 0) {
+            return accepted;
+        }
+        // Visited anyway: the selected viewpoints and the tour start
+        for (Viewpoint vp : selected) {
+            accepted[vp.index] = true;
+        }
+        for (Viewpoint vp : cover.viewpoints) {
+            if (vp.isMandatory) {
+                accepted[vp.index] = true;
+                break;
+            }
+        }
+        // Precision the remaining candidates would add at each other viewpoint
+        double[] gain = new double[store.size];
+        for (int pair : cover.candidates) {
+            int vp = index.viewpointOf(pair);
+            double precision = store.precision(vp, index.directionOf(pair));
+            if (!taken[pair] && !accepted[vp] && precision * index.coverCount(pair) > 0) {
+                gain[vp] += precision;
+            }
+        }
+        List<Integer> visited = new ArrayList<>();
+        List<Integer> joining = new ArrayList<>();
+        for (int vp = 0; vp < store.size; vp++) {
+            if (accepted[vp]) {
+                visited.add(vp);
+            } else if (gain[vp] > 0) {
+                joining.add(vp);
+            }
+        }
+        if (joining.isEmpty() || visited.isEmpty()) {
+            return accepted;
+        }
+        if (dist == null) {
+            throw new RuntimeException("DirectionSelector: a finite lambda needs distances");
+        }
+
+        // Nearest visited viewpoint of every joining one through a k-d tree over both, joining ones removed
+        int m = visited.size() + joining.size();
+        int[] graphIndex = new int[m];
+        double[] xs = new double[m], ys = new double[m], zs = new double[m];
+        for (int k = 0; k < m; k++) {
+            int vp = k < visited.size() ? visited.get(k) : joining.get(k - visited.size());
+            graphIndex[k] = vp;
+            xs[k] = store.xs[vp];
+            ys[k] = store.ys[vp];
+            zs[k] = store.zs[vp];
+        }
+        ViewpointKdTree tree = new ViewpointKdTree(xs, ys, zs, !dist.hasFreeEdges());
+        for (int k = visited.size(); k < m; k++) {
+            tree.remove(k);
+        }
+        int joined = 0;
+        for (int k = visited.size(); k < m; k++) {
+            int from = graphIndex[k];
+            int nearest = tree.nearest(k, j -> dist.get(from, graphIndex[j]));
+            if (nearest >= 0 && lambda * gain[from] > 2 * dist.get(from, graphIndex[nearest])) {
+                accepted[from] = true;
+                joined++;
+            }
+        }
+        SolverMetrics.count("fill_viewpoints", joined);
+        return accepted;
+    }
+
+    // Union of every sample's top-k pairs by precision, as a bitset over pair ids
+    // Workers pull chunks of samples into a private bitset, merged by OR at the end
+    static long[] extractCandidates(CoverageIndex index, ViewpointStore store, Viewpoint[] viewpointByIndex, int k) {
+        int words = CollisionMatrix.words(index.numPairs);
+        int chunks = (index.numSamples + CANDIDATE_CHUNK - 1) / CANDIDATE_CHUNK;
+        int workers = Math.max(1, Math.min(chunks, Runtime.getRuntime().availableProcessors()));
+        AtomicInteger nextChunk = new AtomicInteger();
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        for (int t = 0; t < workers; t++) {
+            tasks.add(() -> {
+                long[] bits = new long[words];
+                double[] topKeys = new double[k];
+                int[] topPairs = new int[k];
+                for (int c = nextChunk.getAndIncrement(); c < chunks; c = nextChunk.getAndIncrement()) {
+                    int end = Math.min(index.numSamples, (c + 1) * CANDIDATE_CHUNK);
+                    for (int s = c * CANDIDATE_CHUNK; s < end; s++) {
+                        int size = topK(index, store, viewpointByIndex, s, topKeys, topPairs);
+                        for (int i = 0; i < size; i++) {
+                            bits[topPairs[i] >>> 6] |= 1L << topPairs[i];
+                        }
+                    }
+                }
+                return bits;
+            });
+        }
+        long[] merged = new long[words];
+        for (Future<long[]> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            long[] bits;
+            try {
+                bits = future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Candidate extraction failed", e);
+            }
+            for (int w = 0; w < words; w++) {
+                merged[w] |= bits[w];
+            }
+        }
+        return merged;
+    }
+
+    // Top-k pairs of one sample kept sorted in a fixed insertion buffer, returns how many were found
+    private static int topK(CoverageIndex index, ViewpointStore store, Viewpoint[] viewpointByIndex, int sample,
+                            double[] topKeys, int[] topPairs) {
+        int k = topKeys.length;
+        int size = 0;
+        for (int e = index.sampleStart[sample]; e < index.sampleStart[sample + 1]; e++) {
+            int pair = index.samplePairs[e];
+            int vp = index.viewpointOf(pair);
+            double precision = store.precision(vp, index.directionOf(pair));
+            if (Double.isNaN(precision) || viewpointByIndex[vp] == null) {
+                continue;
+            }
+            if (size == k && precision <= topKeys[k - 1]) {
+                continue;
+            }
+            // A repeated pair has the same precision, so if it matters it is already in the buffer
+            boolean duplicate = false;
+            for (int i = 0; i < size && !duplicate; i++) {
+                duplicate = topPairs[i] == pair;
+            }
+            if (duplicate) {
+                continue;
+            }
+            int i = size < k ? size++ : k - 1;
+            while (i > 0 && topKeys[i - 1] < precision) {
+                topKeys[i] = topKeys[i - 1];
+                topPairs[i] = topPairs[i - 1];
+                i--;
+            }
+            topKeys[i] = precision;
+            topPairs[i] = pair;
+        }
+        return size;
+    }
+
+    private static void addPair(Map<Viewpoint, Set<String>> result, Viewpoint[] viewpointByIndex,
+                                ViewpointStore store, CoverageIndex index, int pair) {
+        result
+                .computeIfAbsent(viewpointByIndex[index.viewpointOf(pair)], x -> new HashSet<>())
+                .add(store.directionIds[index.directionOf(pair)]);
+    }
+}
+
+// LazyGreedySelector : CELF greedy over (viewpoint, direction) pairs with incremental demand tracking
+// Gain of a pair = precision * number of samples it covers that still need coverage
+class LazyGreedySelector {
+    private final CoverageIndex index;
+    private final ViewpointStore store;
+    // Remaining coverage demand of each sample
+    final int[] need;
+    // Number of samples with need > 0
+    int unsatisfied;
+    // Statistics
+    long heapPops;
+    long evaluations;
+
+    // Constructor: every sample starts with the same demand
+    LazyGreedySelector(CoverageIndex index, ViewpointStore store, int demand) {
+        this.index = index;
+        this.store = store;
+        this.need = new int[index.numSamples];
+        Arrays.fill(need, demand);
+        this.unsatisfied = demand > 0 ? index.numSamples : 0;
+    }
+
+    // Number of still unsatisfied samples a pair covers
+    int activeCover(int pair) {
+        int c = 0;
+        for (int k = index.pairStart[pair]; k < index.pairStart[pair + 1]; k++) {
+            if (need[index.pairSamples[k]] > 0) c++;
+        }
+        return c;
+    }
+
+    // Take a pair: lower the demand of the samples it covers
+    void apply(int pair) {
+        for (int k = index.pairStart[pair]; k < index.pairStart[pair + 1]; k++) {
+            int sample = index.pairSamples[k];
+            if (need[sample] > 0 && --need[sample] == 0) {
+                unsatisfied--;
+            }
+        }
+    }
+
+    // Pick candidates by lazily re-evaluated marginal gain until every sample is satisfied
+    // or no candidate covers an unsatisfied sample; returns the picks in order
+    int[] select(int[] candidates) {
+        PairHeap heap = new PairHeap(candidates.length);
+        for (int pair : candidates) {
+            int cover = activeCover(pair);
+            evaluations++;
+            if (cover > 0) {
+                heap.push(gain(pair, cover), pair);
+            }
+        }
+        int[] picked = new int[candidates.length];
+        int count = 0;
+        GreedyPickEvent event = new GreedyPickEvent();
+        event.begin();
+        long popsBefore = heapPops;
+        while (unsatisfied > 0 && !heap.isEmpty()) {
+            int pair = heap.topPair();
+            heap.pop();
+            heapPops++;
+            // Gains only shrink, so a fresh gain that still beats the next key is the true maximum
+            int cover = activeCover(pair);
+            evaluations++;
+            if (cover == 0) {
+                continue;
+            }
+            double g = gain(pair, cover);
+            if (!heap.isEmpty() && g < heap.topKey()) {
+                heap.push(g, pair);
+                continue;
+            }
+            apply(pair);
+            picked[count++] = pair;
+            if (event.shouldCommit()) {
+                event.viewpoint = store.viewpointIds[index.viewpointOf(pair)];
+                event.direction = store.directionIds[index.directionOf(pair)];
+                event.gain = g;
+                event.cover = cover;
+                event.heapPops = heapPops - popsBefore;
+                event.unsatisfied = unsatisfied;
+                event.commit();
+            }
+            event = new GreedyPickEvent();
+            event.begin();
+            popsBefore = heapPops;
+        }
+        return Arrays.copyOf(picked, count);
+    }
+
+    private double gain(int pair, int cover) {
+        return store.precision(index.viewpointOf(pair), index.directionOf(pair)) * cover;
+    }
+
+    // PairHeap : Binary max-heap of (gain, pair) in primitive arrays
+    static class PairHeap {
+        private double[] keys;
+        private int[] pairs;
+        private int size;
+
+        PairHeap(int capacity) {
+            keys = new double[Math.max(1, capacity)];
+            pairs = new int[Math.max(1, capacity)];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double topKey() {
+            return keys[0];
+        }
+
+        int topPair() {
+            return pairs[0];
+        }
+
+        void push(double key, int pair) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                pairs = Arrays.copyOf(pairs, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] >= key) break;
+                keys[i] = keys[parent];
+                pairs[i] = pairs[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            pairs[i] = pair;
+        }
+
+        void pop() {
+            double key = keys[--size];
+            int pair = pairs[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && keys[child + 1] > keys[child]) child++;
+                if (keys[child] <= key) break;
+                keys[i] = keys[child];
+                pairs[i] = pairs[child];
+                i = child;
+            }
+            keys[i] = key;
+            pairs[i] = pair;
+        }
+    }
+}
+
+// TourPlanner : Build a closed tour
+class TourPlanner {
+    // Save the tour
+    static class TourResult {
+        public final List<Viewpoint> tour;      // tour
+        public final double totalDistance;      // total travel distance
+
+        // Constructor
+        public TourResult(List<Viewpoint> tour, double totalDistance) {
+            this.tour = tour;
+            this.totalDistance = totalDistance;
+        }
+    }
+
+    // Main method to build a tour
+    static TourResult buildTour(
+            List<Viewpoint> allVps, // all viewpoints
+            Collection<Viewpoint> mustVisit,    // viewpoints that must be visited
+            List<Viewpoint> allowedTransit, // viewpoints that can be visited as transit
+            double[][] dist
+    ) {
+        return buildTour(allVps, mustVisit, allowedTransit, new DenseDistanceOracle(dist));
+    }
+
+    // Main method to build a tour on any distance oracle
+    static TourResult buildTour(
+            List<Viewpoint> allVps, // all viewpoints
+            Collection<Viewpoint> mustVisit,    // viewpoints that must be visited
+            List<Viewpoint> allowedTransit, // viewpoints that can be visited as transit
+            DistanceOracle dist
+    ) {
+        return buildTour(allVps, mustVisit, allowedTransit, dist, new SolverConfig());
+    }
+
+    // Main method to build a tour with the local search budget and repair strategy of config
+    static TourResult buildTour(
+            List<Viewpoint> allVps, // all viewpoints
+            Collection<Viewpoint> mustVisit,    // viewpoints that must be visited
+            List<Viewpoint> allowedTransit, // viewpoints that can be visited as transit
+            DistanceOracle dist,
+            SolverConfig config
+    ) {
+        // Check whether there are viewpoints to visit
+        if (mustVisit == null || mustVisit.isEmpty()) {
+            return new TourResult(new ArrayList<>(), 0.0);
+        }
+
+        // Find the start viewpoint
+        Viewpoint start = null;
+        for (Viewpoint vp : allVps) {
+            if (vp.isMandatory) {
+                start = vp;
+                break;
+            }
+        }
+        // Visit and transit in viewpoint index order: the nearest-neighbour and relay tie-breaks follow it,
+        // so it must not come from the iteration order of a hash map keyed by viewpoint
+        List<Viewpoint> visit = new ArrayList<>(mustVisit);
+        visit.sort(Comparator.comparingInt(vp -> vp.index));
+
+        // If there is no mandatory viewpoint, start from the first viewpoint in mustVisit
+        if (start == null) {
+            start = visit.get(0);
+        }
+
+        // Make sure allowedTransit contains mustVisit (good for backtrack)
+        LinkedHashSet<Viewpoint> transitSet = new LinkedHashSet<>(allowedTransit);
+        transitSet.addAll(visit);
+        List<Viewpoint> fullTransit = new ArrayList<>(transitSet);
+        fullTransit.sort(Comparator.comparingInt(vp -> vp.index));
+
+        // Nearest Neighbor Path
+        List<Viewpoint> nnPath = buildNearestNeighborPath(visit, dist, start);
+
+        // 2-opt / Or-opt on the cycle, before any relay is inserted
+        nnPath = TourImprover.improve(nnPath, dist, config.improveMs);
+
+        // Closed loop to the Beginning
+        nnPath.add(start);
+
+        // Insert stopover points so that the path has no INF edges
+        SolverMetrics.phase("repair");
+        List<Viewpoint> repaired = repair(nnPath, fullTransit, dist, config.repair);
+
+        // Calculate the total distance
+        double totalDist = computePathLength(repaired, dist);
+        return new TourResult(repaired, totalDist);
+    }
+
+    // Nearest Neighbor Path Construct
+    private static List<Viewpoint> buildNearestNeighborPath(
+            Collection<Viewpoint> mustVisit,
+            DistanceOracle dist,
+            Viewpoint start
+    ) {
+        // Ensure unique viewpoint list while preserving insertion order
+        List<Viewpoint> nodes = new ArrayList<>(new LinkedHashSet<>(mustVisit));
+
+        // Ensure to include a starting point
+        if (!nodes.contains(start)) {
+            nodes.add(0, start);
+        }
+
+        int m = nodes.size();
+        boolean[] visited = new boolean[m];
+
+        // Local coordinates and graph indices, so the search never goes through the list
+        int[] graphIndex = new int[m];
+        double[] xs = new double[m];
+        double[] ys = new double[m];
+        double[] zs = new double[m];
+        int currentLocal = -1;
+        for (int i = 0; i < m; i++) {
+            Viewpoint vp = nodes.get(i);
+            graphIndex[i] = vp.index;
+            xs[i] = vp.x;
+            ys[i] = vp.y;
+            zs[i] = vp.z;
+            if (vp == start) {
+                currentLocal = i;
+            }
+        }
+        ViewpointKdTree tree = new ViewpointKdTree(xs, ys, zs, !dist.hasFreeEdges());
+        visited[currentLocal] = true;
+        tree.remove(currentLocal);
+        int firstUnvisited = 0;
+        int unreachableSteps = 0;
+
+        List<Viewpoint> path = new ArrayList<>();
+        path.add(start);
+
+        // Main loop
+        // At each step, choose the closest unvisited viewpoint reachable without collision
+        // Feasible distances are Euclidean, so the tree prunes by geometry and skips INF edges as it goes;
+        // with 0.0 edges (collision value 0) in the matrix it scans every remaining node instead
+        while (path.size() < m) {
+            NearestNeighbourStepEvent event = new NearestNeighbourStepEvent();
+            event.begin();
+            int from = graphIndex[currentLocal];
+            int bestLocal = tree.nearest(currentLocal, j -> dist.get(from, graphIndex[j]));
+            boolean reachable = bestLocal != -1;
+
+            // Every unvisited viewpoint is behind an INF edge: take the first one, repairPath will bridge it
+            if (bestLocal == -1) {
+                while (visited[firstUnvisited]) {
+                    firstUnvisited++;
+                }
+                bestLocal = firstUnvisited;
+                unreachableSteps++;
+            }
+            // Mark the bestLocal as visited and add it to the path
+            visited[bestLocal] = true;
+            tree.remove(bestLocal);
+            path.add(nodes.get(bestLocal));
+            if (event.shouldCommit()) {
+                event.from = nodes.get(currentLocal).id;
+                event.to = nodes.get(bestLocal).id;
+                event.distance = dist.get(from, graphIndex[bestLocal]);
+                event.reachable = reachable;
+                event.evaluations = tree.lastEvaluations();
+                event.remaining = m - path.size();
+                event.commit();
+            }
+            currentLocal = bestLocal;
+        }
+        SolverMetrics.count("nn_steps", m - 1);
+        SolverMetrics.count("nn_unreachable_steps", unreachableSteps);
+        return path;
+    }
+
+    // Bridge every INF edge of a closed path through allowedTransit with the given strategy (shortest or relay)
+    static List<Viewpoint> repair(List<Viewpoint> path, List<Viewpoint> allowedTransit, DistanceOracle dist,
+                                  String strategy) {
+        List<Viewpoint> repaired = strategy.equals("relay")
+                ? repairPath(path, allowedTransit, dist)
+                : repairPathShortest(path, allowedTransit, dist);
+        SolverMetrics.count("relays_inserted", repaired.size() - path.size());
+        return repaired;
+    }
+
+    // Repair a path in one pass by splicing the shortest feasible detour through allowedTransit into every INF edge
+    private static List<Viewpoint> repairPathShortest(
+            List<Viewpoint> path,
+            List<Viewpoint> allowedTransit,
+            DistanceOracle dist
+    ) {
+        // INF edges grouped by their source
+        Map<Integer, List<Integer>> gaps = new LinkedHashMap<>();
+        for (int i = 0; i < path.size() - 1; i++) {
+            Viewpoint A = path.get(i);
+            Viewpoint B = path.get(i + 1);
+            if (dist.get(A.index, B.index) == Double.POSITIVE_INFINITY) {
+                gaps.computeIfAbsent(A.index, x -> new ArrayList<>()).add(B.index);
+            }
+        }
+        SolverMetrics.count("inf_edges", gaps.values().stream().mapToInt(List::size).sum());
+        if (gaps.isEmpty()) {
+            return new ArrayList<>(path);
+        }
+        SolverMetrics.count("dijkstra_sources", gaps.size());
+
+        // Detours may pass through any allowed transit viewpoint
+        Viewpoint[] byIndex = new Viewpoint[dist.size()];
+        List<Integer> nodes = new ArrayList<>();
+        for (Viewpoint vp : allowedTransit) {
+            if (byIndex[vp.index] == null) {
+                byIndex[vp.index] = vp;
+                nodes.add(vp.index);
+            }
+        }
+        for (Viewpoint vp : path) {
+            if (byIndex[vp.index] == null) {
+                byIndex[vp.index] = vp;
+                nodes.add(vp.index);
+            }
+        }
+        // Gaps between components of the feasible graph are rejected before any search
+        ReachabilityIndex reach = new ReachabilityIndex(dist, allowedTransit);
+        for (Map.Entry<Integer, List<Integer>> gap : gaps.entrySet()) {
+            for (int target : gap.getValue()) {
+                if (!reach.connected(gap.getKey(), target)) {
+                    throw new RuntimeException("TourPlanner: Path segments are not connected: "
+                            + byIndex[gap.getKey()].id + " → " + byIndex[target].id);
+                }
+            }
+        }
+        ShortestPathTable table = new ShortestPathTable(
+                dist, nodes.stream().mapToInt(Integer::intValue).toArray(), gaps);
+
+        List<Viewpoint> res = new ArrayList<>(path.size());
+        for (int i = 0; i < path.size(); i++) {
+            Viewpoint A = path.get(i);
+            res.add(A);
+            if (i == path.size() - 1) {
+                break;
+            }
+            Viewpoint B = path.get(i + 1);
+            if (dist.get(A.index, B.index) != Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            RepairSpliceEvent event = new RepairSpliceEvent();
+            event.begin();
+            int[] detour = table.path(A.index, B.index);
+            if (detour == null) {
+                throw new RuntimeException("TourPlanner: Path segments cannot be repaired: "
+                        + A.id + " → " + B.id);
+            }
+            // Interior nodes only, A is already in and B comes next
+            for (int k = 1; k < detour.length - 1; k++) {
+                res.add(byIndex[detour[k]]);
+            }
+            commitSplice(event, A, B, "shortest", detour.length - 1, table.settled(A.index, B.index));
+        }
+        return res;
+    }
+
+    // Repair a path by replacing any INF edges with feasible relay points
+    private static List<Viewpoint> repairPath(
+            List<Viewpoint> path,
+            List<Viewpoint> allowedTransit,
+            DistanceOracle dist
+    ) {
+        ReachabilityIndex reach = new ReachabilityIndex(dist, allowedTransit);
+        List<Viewpoint> res = new ArrayList<>(path.size());
+
+        // Relays only add feasible edges, so a single pass sees every INF edge once
+        for (int i = 0; i < path.size(); i++) {
+            Viewpoint A = path.get(i);
+            res.add(A);
+            if (i == path.size() - 1) {
+                break;
+            }
+            Viewpoint B = path.get(i + 1);
+
+            // If A → B is valid (not INF), nothing to repair
+            if (dist.get(A.index, B.index) != Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            SolverMetrics.count("inf_edges", 1);
+            if (!reach.connected(A.index, B.index)) {
+                throw new RuntimeException("TourPlanner: Path segments are not connected: "
+                        + A.id + " → " + B.id);
+            }
+
+            RepairSpliceEvent event = new RepairSpliceEvent();
+            event.begin();
+            long scannedBefore = reach.wordsScanned();
+
+            // Attempt single-hop repair: A → K → B
+            Viewpoint K = findSingleHop(A, B, allowedTransit, reach);
+            if (K != null) {
+                // System.out.printf("[REPAIR-1] %s → %s → %s\n", A.id, K.id, B.id);
+                res.add(K);
+                commitSplice(event, A, B, "relay", 2, reach.wordsScanned() - scannedBefore);
+                continue;
+            }
+
+            // Attempt double-hop repair: A → K1 → K2 → B
+            List<Viewpoint> two = findTwoHop(A, B, allowedTransit, reach);
+            if (two != null) {
+                // System.out.printf("[REPAIR-2] %s → %s → %s → %s\n",A.id, two.get(0).id, two.get(1).id, B.id);
+                res.addAll(two);
+                commitSplice(event, A, B, "relay", 3, reach.wordsScanned() - scannedBefore);
+                continue;
+            }
+
+            // No repair found: This A → B cannot be fixed with the given set
+            throw new RuntimeException("TourPlanner: Path segments cannot be repaired: "
+                    + A.id + " → " + B.id);
+        }
+        return res;
+    }
+
+    private static void commitSplice(RepairSpliceEvent event, Viewpoint A, Viewpoint B, String strategy,
+                                     int hops, long scanCost) {
+        if (event.shouldCommit()) {
+            event.from = A.id;
+            event.to = B.id;
+            event.strategy = strategy;
+            event.hops = hops;
+            event.scanCost = scanCost;
+            event.commit();
+        }
+    }
+
+    // Try single-hop repair for an INF edge A → B
+    // The first viewpoint K in allowedTransit with A → K and K → B feasible, found by intersecting the two rows
+    private static Viewpoint findSingleHop(
+            Viewpoint A,
+            Viewpoint B,
+            List<Viewpoint> allowedTransit,
+            ReachabilityIndex reach
+    ) {
+        int k = reach.singleHop(A.index, B.index);
+        return k < 0 ? null : allowedTransit.get(k);
+    }
+
+    // Try double-hop repair for an INF edge A → B
+    private static List<Viewpoint> findTwoHop(
+            Viewpoint A,
+            Viewpoint B,
+            List<Viewpoint> allowedTransit,
+            ReachabilityIndex reach
+    ) {
+        int[] k = reach.twoHop(A.index, B.index);
+        return k == null ? null : Arrays.asList(allowedTransit.get(k[0]), allowedTransit.get(k[1]));
+    }
+
+    // Compute total path length
+    // For each consecutive pair A → B:
+    // If dist[A][B] is finite, add it.
+    // If it is INF, print a warning (should not happen after repair)
+    // Length of a closed tour once every joining viewpoint is inserted, in index order, where it adds the least;
+    // a cheap estimate of routing the larger set from scratch, INF when a viewpoint only fits over INF edges.
+    // Distances are symmetric, so one row per joining viewpoint serves both of its edges.
+    static double insertionEstimate(TourResult tour, Collection<Viewpoint> joining, DistanceOracle dist) {
+        List<Viewpoint> order = new ArrayList<>(joining);
+        order.sort(Comparator.comparingInt(vp -> vp.index));
+        int size = tour.tour.size();
+        int[] path = new int[size + order.size()];
+        double[] edge = new double[path.length];        // edge[p] runs from path[p] to path[p + 1]
+        for (int p = 0; p < size; p++) {
+            path[p] = tour.tour.get(p).index;
+        }
+        for (int p = 0; p + 1 < size; p++) {
+            edge[p] = dist.get(path[p], path[p + 1]);
+        }
+        double length = tour.totalDistance;
+        for (Viewpoint vp : order) {
+            double[] row = dist.row(vp.index);
+            int best = -1;
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int p = 0; p + 1 < size; p++) {
+                if (edge[p] == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double cost = row[path[p]] + row[path[p + 1]] - edge[p];
+                if (cost < bestCost) {
+                    best = p;
+                    bestCost = cost;
+                }
+            }
+            if (best < 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            // Edge best becomes two edges through vp, the later ones move up by one
+            System.arraycopy(path, best + 1, path, best + 2, size - best - 1);
+            System.arraycopy(edge, best + 1, edge, best + 2, size - best - 2);
+            path[best + 1] = vp.index;
+            edge[best] = row[path[best]];
+            edge[best + 1] = row[path[best + 2]];
+            size++;
+            length += bestCost;
+        }
+        return length;
+    }
+
+    static double computePathLength(List<Viewpoint> path, DistanceOracle dist) {
+        double total = 0.0;
+        for (int i = 0; i < path.size() - 1; i++) {
+            Viewpoint A = path.get(i);
+            Viewpoint B = path.get(i + 1);
+            double d = dist.get(A.index, B.index);
+            if (Double.isInfinite(d)) {
+                System.err.println("Warning: INF edges still exist in the path: " + A.id + " → " + B.id);
+            } else {
+                total += d;
+            }
+        }
+        return total;
+    }
+}
+
+// ReachabilityIndex : Feasible edges as bitset rows over an allowed-transit list, with connected components
+// Bit k of a row is allowedTransit.get(k); rows are built from the distance oracle on first use
+class ReachabilityIndex {
+    private final DistanceOracle dist;
+    private final int[] nodes;                          // transit position -> graph index
+    private final int[] localOf;                        // graph index -> transit position, -1 if not transit
+    private final int words;
+    private final Map<Integer, long[]> rows = new HashMap<>();
+    private int[] component;                            // by transit position, built on first query
+    private long wordsScanned;                          // row words intersected by relay lookups
+
+    ReachabilityIndex(DistanceOracle dist, List<Viewpoint> allowedTransit) {
+        this.dist = dist;
+        this.nodes = new int[allowedTransit.size()];
+        this.localOf = new int[dist.size()];
+        Arrays.fill(localOf, -1);
+        for (int k = 0; k < nodes.length; k++) {
+            nodes[k] = allowedTransit.get(k).index;
+            if (localOf[nodes[k]] < 0) {
+                localOf[nodes[k]] = k;
+            }
+        }
+        this.words = CollisionMatrix.words(nodes.length);
+    }
+
+    // Transit nodes reachable from a viewpoint over one feasible edge
+    long[] row(int graphIndex) {
+        return rows.computeIfAbsent(graphIndex, this::buildRow);
+    }
+
+    private long[] buildRow(int graphIndex) {
+        double[] d = dist.row(graphIndex);
+        long[] bits = new long[words];
+        for (int k = 0; k < nodes.length; k++) {
+            if (d[nodes[k]] != Double.POSITIVE_INFINITY) {
+                bits[k >>> 6] |= 1L << k;
+            }
+        }
+        return bits;
+    }
+
+    // First transit position K with a → K and K → b feasible, -1 if none
+    int singleHop(int a, int b) {
+        return firstCommon(row(a), row(b));
+    }
+
+    // First transit positions (K1, K2) with a → K1 → K2 → b feasible, null if none
+    int[] twoHop(int a, int b) {
+        long[] rowA = row(a);
+        long[] rowB = row(b);
+        for (int w = 0; w < words; w++) {
+            for (long bits = rowA[w]; bits != 0; bits &= bits - 1) {
+                int k1 = (w << 6) + Long.numberOfTrailingZeros(bits);
+                int k2 = firstCommon(row(nodes[k1]), rowB);
+                if (k2 >= 0) {
+                    return new int[]{k1, k2};
+                }
+            }
+        }
+        return null;
+    }
+
+    private int firstCommon(long[] x, long[] y) {
+        for (int w = 0; w < words; w++) {
+            long common = x[w] & y[w];
+            if (common != 0) {
+                wordsScanned += w + 1;
+                return (w << 6) + Long.numberOfTrailingZeros(common);
+            }
+        }
+        wordsScanned += words;
+        return -1;
+    }
+
+    long wordsScanned() {
+        return wordsScanned;
+    }
+
+    // Whether two viewpoints can reach each other through transit nodes
+    // A viewpoint outside the transit list belongs to the components of its transit neighbours
+    boolean connected(int a, int b) {
+        if (component == null) {
+            component = components();
+        }
+        boolean[] seen = new boolean[nodes.length];
+        if (localOf[a] >= 0) {
+            seen[component[localOf[a]]] = true;
+        } else {
+            long[] rowA = row(a);
+            for (int w = 0; w < words; w++) {
+                for (long bits = rowA[w]; bits != 0; bits &= bits - 1) {
+                    seen[component[(w << 6) + Long.numberOfTrailingZeros(bits)]] = true;
+                }
+            }
+        }
+        if (localOf[b] >= 0) {
+            return seen[component[localOf[b]]];
+        }
+        long[] rowB = row(b);
+        for (int w = 0; w < words; w++) {
+            for (long bits = rowB[w]; bits != 0; bits &= bits - 1) {
+                if (seen[component[(w << 6) + Long.numberOfTrailingZeros(bits)]]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Breadth-first search over the transit graph, each row is ANDed with the unvisited set and dropped
+    private int[] components() {
+        int n = nodes.length;
+        int[] comp = new int[n];
+        long[] unvisited = new long[words];
+        for (int k = 0; k < n; k++) {
+            unvisited[k >>> 6] |= 1L << k;
+        }
+        int[] queue = new int[n];
+        int count = 0;
+        for (int start = 0; start < n; start++) {
+            if ((unvisited[start >>> 6] & (1L << start)) == 0) {
+                continue;
+            }
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            unvisited[start >>> 6] &= ~(1L << start);
+            while (head < tail) {
+                int u = queue[head++];
+                comp[u] = count;
+                long[] r = rows.containsKey(nodes[u]) ? rows.get(nodes[u]) : buildRow(nodes[u]);
+                for (int w = 0; w < words; w++) {
+                    long next = r[w] & unvisited[w];
+                    unvisited[w] &= ~next;
+                    for (; next != 0; next &= next - 1) {
+                        queue[tail++] = (w << 6) + Long.numberOfTrailingZeros(next);
+                    }
+                }
+            }
+            count++;
+        }
+        return comp;
+    }
+}
+
+// ShortestPathTable : Shortest feasible paths over a node subset from the sources that need them
+// One dense Dijkstra per source, run in parallel, stopping once all of its targets are settled
+class ShortestPathTable {
+    private final int[] nodes;                  // local -> graph index
+    private final int[] localOf;                // graph index -> local, -1 outside the node set
+    private final Map<Integer, Integer> sourceOrdinal = new HashMap<>();
+    private final double[][] distances;         // per source, by local node
+    private final int[][] predecessors;         // per source, by local node, -1 if not reached
+    private final int[][] settledRank;          // per source, by local node: 1 + nodes settled before it, 0 if never
+
+    ShortestPathTable(DistanceOracle dist, int[] nodes, Map<Integer, List<Integer>> targetsBySource) {
+        this.nodes = nodes;
+        this.localOf = new int[dist.size()];
+        Arrays.fill(localOf, -1);
+        for (int i = 0; i < nodes.length; i++) {
+            localOf[nodes[i]] = i;
+        }
+        int[] sources = new int[targetsBySource.size()];
+        int[][] targets = new int[sources.length][];
+        for (Map.Entry<Integer, List<Integer>> e : targetsBySource.entrySet()) {
+            int ordinal = sourceOrdinal.size();
+            sourceOrdinal.put(e.getKey(), ordinal);
+            sources[ordinal] = e.getKey();
+            targets[ordinal] = e.getValue().stream().mapToInt(t -> localOf[t]).toArray();
+        }
+        this.distances = new double[sources.length][];
+        this.predecessors = new int[sources.length][];
+        this.settledRank = new int[sources.length][];
+        IntStream.range(0, sources.length).parallel()
+                .forEach(s -> dijkstra(dist, s, localOf[sources[s]], targets[s]));
+    }
+
+    // Dense Dijkstra: O(n) minimum scan per settled node, rows come from the oracle
+    private void dijkstra(DistanceOracle dist, int s, int source, int[] targets) {
+        int n = nodes.length;
+        double[] best = new double[n];
+        int[] pred = new int[n];
+        int[] rank = new int[n];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        Arrays.fill(pred, -1);
+        distances[s] = best;
+        predecessors[s] = pred;
+        settledRank[s] = rank;
+        if (source < 0) {
+            return;
+        }
+        best[source] = 0.0;
+        int settledCount = 0;
+        int remaining = 0;
+        for (int t : targets) {
+            if (t >= 0) {
+                remaining++;
+            }
+        }
+        while (remaining > 0) {
+            int u = -1;
+            for (int v = 0; v < n; v++) {
+                if (rank[v] == 0 && best[v] != Double.POSITIVE_INFINITY && (u == -1 || best[v] < best[u])) {
+                    u = v;
+                }
+            }
+            // The rest of the node set is not reachable
+            if (u == -1) {
+                return;
+            }
+            rank[u] = ++settledCount;
+            for (int t : targets) {
+                if (t == u) {
+                    remaining--;
+                }
+            }
+            double[] row = dist.row(nodes[u]);
+            for (int v = 0; v < n; v++) {
+                if (rank[v] != 0) {
+                    continue;
+                }
+                double w = row[nodes[v]];
+                if (w != Double.POSITIVE_INFINITY && best[u] + w < best[v]) {
+                    best[v] = best[u] + w;
+                    pred[v] = u;
+                }
+            }
+        }
+    }
+
+    // Nodes the search from a source settled until it reached a target, the target included;
+    // 0 if it was not a source or the target was never reached
+    int settled(int from, int to) {
+        Integer s = sourceOrdinal.get(from);
+        return s == null || localOf[to] < 0 ? 0 : settledRank[s][localOf[to]];
+    }
+
+    // Shortest feasible distance between two graph indices, INF if unreachable or not computed
+    double distance(int from, int to) {
+        Integer s = sourceOrdinal.get(from);
+        if (s == null || localOf[to] < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return distances[s][localOf[to]];
+    }
+
+    // Shortest feasible path as graph indices including both ends, null if unreachable
+    int[] path(int from, int to) {
+        if (distance(from, to) == Double.POSITIVE_INFINITY) {
+            return null;
+        }
+        int[] pred = predecessors[sourceOrdinal.get(from)];
+        int length = 1;
+        for (int v = localOf[to]; pred[v] >= 0; v = pred[v]) {
+            length++;
+        }
+        int[] result = new int[length];
+        int k = length;
+        for (int v = localOf[to]; v >= 0; v = pred[v]) {
+            result[--k] = nodes[v];
+        }
+        return result;
+    }
+}
+
+// ViewpointKdTree : 3D k-d tree over tour nodes with deletion and nearest reachable neighbour queries
+// Subtree [lo, hi) of the order array is rooted at slot mid = (lo + hi) >>> 1
+// Pruning by geometry needs every distance to be at least the Euclidean one; without it queries scan every node
+class ViewpointKdTree {
+    private final double[] xs, ys, zs;
+    private final boolean prune;
+    private final int[] order;          // node ids in tree layout
+    private final int[] position;       // node -> slot in order
+    private final byte[] axis;          // split axis of the subtree rooted at each slot
+    private final int[] alive;          // nodes not yet removed in the subtree rooted at each slot
+    private final boolean[] removed;
+
+    // Query state, best nodes kept sorted by (distance, node id)
+    private double qx, qy, qz;
+    private int exclude;
+    private IntToDoubleFunction distanceTo;
+    private int[] bestNodes;
+    private double[] bestDists;
+    private int found;
+    private int evaluations;
+    private final int[] singleNode = new int[1];
+    private final double[] singleDist = new double[1];
+
+    // prune = false for distances that may be below the Euclidean one (DistanceOracle.hasFreeEdges)
+    ViewpointKdTree(double[] xs, double[] ys, double[] zs, boolean prune) {
+        int n = xs.length;
+        this.prune = prune;
+        this.xs = xs;
+        this.ys = ys;
+        this.zs = zs;
+        this.order = new int[n];
+        this.position = new int[n];
+        this.axis = new byte[n];
+        this.alive = new int[n];
+        this.removed = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        build(0, n);
+        for (int i = 0; i < n; i++) {
+            position[order[i]] = i;
+        }
+    }
+
+    private double coordinate(int node, int a) {
+        return a == 0 ? xs[node] : a == 1 ? ys[node] : zs[node];
+    }
+
+    // Split on the axis of largest spread, median at mid
+    private void build(int lo, int hi) {
+        if (lo >= hi) {
+            return;
+        }
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = lo; i < hi; i++) {
+            for (int a = 0; a < 3; a++) {
+                double c = coordinate(order[i], a);
+                min[a] = Math.min(min[a], c);
+                max[a] = Math.max(max[a], c);
+            }
+        }
+        int a = 0;
+        for (int b = 1; b < 3; b++) {
+            if (max[b] - min[b] > max[a] - min[a]) {
+                a = b;
+            }
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, a);
+        axis[mid] = (byte) a;
+        alive[mid] = hi - lo;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    // Quickselect: put the k-th smallest node along axis a at slot k
+    private void select(int lo, int hi, int k, int a) {
+        while (lo < hi) {
+            double pivot = coordinate(order[(lo + hi) >>> 1], a);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (coordinate(order[i], a) < pivot) i++;
+                while (coordinate(order[j], a) > pivot) j--;
+                if (i <= j) {
+                    int t = order[i];
+                    order[i++] = order[j];
+                    order[j--] = t;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    // Delete a node, updating alive counts along its root path
+    void remove(int node) {
+        if (removed[node]) {
+            return;
+        }
+        removed[node] = true;
+        int p = position[node];
+        int lo = 0, hi = order.length;
+        while (true) {
+            int mid = (lo + hi) >>> 1;
+            alive[mid]--;
+            if (p == mid) {
+                return;
+            }
+            if (p < mid) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+    }
+
+    // Nearest remaining node to `from` by distanceTo, which must be INF for unreachable nodes and, when pruning,
+    // at least the Euclidean distance otherwise; ties go to the smaller node id, -1 if every remaining node is unreachable
+    int nearest(int from, IntToDoubleFunction distanceTo) {
+        return nearest(from, distanceTo, singleNode, singleDist) == 0 ? -1 : singleNode[0];
+    }
+
+    // Up to nodes.length nearest remaining reachable nodes other than `from`, sorted; returns how many were found
+    int nearest(int from, IntToDoubleFunction distanceTo, int[] nodes, double[] dists) {
+        this.qx = xs[from];
+        this.qy = ys[from];
+        this.qz = zs[from];
+        this.exclude = from;
+        this.distanceTo = distanceTo;
+        this.bestNodes = nodes;
+        this.bestDists = dists;
+        this.found = 0;
+        this.evaluations = 0;
+        search(0, order.length);
+        this.distanceTo = null;
+        this.bestNodes = null;
+        this.bestDists = null;
+        return found;
+    }
+
+    // Distances looked up by the last query
+    int lastEvaluations() {
+        return evaluations;
+    }
+
+    // Distance a node must not exceed to enter the result
+    private double bound() {
+        return found < bestNodes.length ? Double.POSITIVE_INFINITY : bestDists[found - 1];
+    }
+
+    private void offer(int node, double d) {
+        int k = bestNodes.length;
+        if (found == k && (d > bestDists[k - 1] || (d == bestDists[k - 1] && node > bestNodes[k - 1]))) {
+            return;
+        }
+        int i = found < k ? found++ : k - 1;
+        while (i > 0 && (bestDists[i - 1] > d || (bestDists[i - 1] == d && bestNodes[i - 1] > node))) {
+            bestDists[i] = bestDists[i - 1];
+            bestNodes[i] = bestNodes[i - 1];
+            i--;
+        }
+        bestDists[i] = d;
+        bestNodes[i] = node;
+    }
+
+    private void search(int lo, int hi) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (alive[mid] == 0) {
+            return;
+        }
+        int node = order[mid];
+        int a = axis[mid];
+        double diff = (a == 0 ? qx : a == 1 ? qy : qz) - coordinate(node, a);
+
+        // Near side first, then this node, then the far side if the splitting plane is close enough
+        if (diff < 0) {
+            search(lo, mid);
+        } else {
+            search(mid + 1, hi);
+        }
+        if (!removed[node] && node != exclude) {
+            double dx = qx - xs[node];
+            double dy = qy - ys[node];
+            double dz = qz - zs[node];
+            if (!prune || Math.sqrt(dx * dx + dy * dy + dz * dz) <= bound()) {
+                double d = distanceTo.applyAsDouble(node);
+                evaluations++;
+                if (d != Double.POSITIVE_INFINITY) {
+                    offer(node, d);
+                }
+            }
+        }
+        if (!prune || Math.abs(diff) <= bound()) {
+            if (diff < 0) {
+                search(mid + 1, hi);
+            } else {
+                search(lo, mid);
+            }
+        }
+    }
+}
+
+// TourImprover : 2-opt and Or-opt local search on a closed tour, until convergence or a fixed step limit
+// Moves come from k-nearest feasible neighbour lists with don't-look bits and never add an INF edge.
+// Both stopping rules are deterministic; the wall-clock budget is only a safety cap that normal runs never reach.
+class TourImprover {
+    // Default wall-clock cap in milliseconds
+    static final long DEFAULT_BUDGET_MS = 1000;
+    // Nodes examined per tour node before the search stops unconverged (it converges after a few per node)
+    static final int MAX_STEPS_PER_NODE = 64;
+    // Neighbour list length
+    static final int NEIGHBOURS = 8;
+    // Longest segment moved by Or-opt
+    private static final int MAX_SEGMENT = 3;
+    // Cost of an INF edge already in the tour, so that removing it always pays off
+    private static final double INF_EDGE_COST = 1e12;
+    // Smallest gain worth applying
+    private static final double EPS = 1e-9;
+
+    private final int m;
+    private final int[] graphIndex;
+    private final DistanceOracle dist;
+    private final int[] tour;               // position -> local node
+    private final int[] pos;                // local node -> position
+    private final int[] neighbours;         // NEIGHBOURS per node, nearest first, padded with -1
+    private final double[] neighbourDist;
+    private final boolean[] queued;         // don't-look bit cleared
+    private final int[] queue;              // circular FIFO of nodes to examine
+    private int head, queueSize;
+    private long steps, twoOptMoves, orOptMoves;
+    // Whether the wall-clock cap, rather than convergence or the step limit, ended the search
+    private boolean timedOut;
+
+    // Improve a closed tour given without its closing node, the result still starts at cycle.get(0)
+    static List<Viewpoint> improve(List<Viewpoint> cycle, DistanceOracle dist, long budgetMs) {
+        int m = cycle.size();
+        if (m < 5 || budgetMs <= 0) {
+            return cycle;
+        }
+        long deadline = System.nanoTime() + budgetMs * 1_000_000L;
+        TourImprover improver = new TourImprover(cycle, dist);
+        improver.run(deadline);
+        SolverMetrics.count("improve_steps", improver.steps);
+        SolverMetrics.count("two_opt_moves", improver.twoOptMoves);
+        SolverMetrics.count("or_opt_moves", improver.orOptMoves);
+        SolverMetrics.count("improve_converged", improver.queueSize == 0 ? 1 : 0);
+        SolverMetrics.count("improve_timed_out", improver.timedOut ? 1 : 0);
+
+        List<Viewpoint> result = new ArrayList<>(m);
+        int p = improver.pos[0];
+        for (int i = 0; i < m; i++) {
+            result.add(cycle.get(improver.tour[(p + i) % m]));
+        }
+        return result;
+    }
+
+    private TourImprover(List<Viewpoint> cycle, DistanceOracle dist) {
+        this.m = cycle.size();
+        this.dist = dist;
+        this.graphIndex = new int[m];
+        this.tour = new int[m];
+        this.pos = new int[m];
+        double[] xs = new double[m];
+        double[] ys = new double[m];
+        double[] zs = new double[m];
+        for (int i = 0; i < m; i++) {
+            Viewpoint vp = cycle.get(i);
+            graphIndex[i] = vp.index;
+            xs[i] = vp.x;
+            ys[i] = vp.y;
+            zs[i] = vp.z;
+            tour[i] = i;
+            pos[i] = i;
+        }
+
+        // k-nearest feasible neighbours of every node
+        this.neighbours = new int[m * NEIGHBOURS];
+        this.neighbourDist = new double[m * NEIGHBOURS];
+        Arrays.fill(neighbours, -1);
+        ViewpointKdTree tree = new ViewpointKdTree(xs, ys, zs, !dist.hasFreeEdges());
+        int[] nodes = new int[NEIGHBOURS];
+        double[] dists = new double[NEIGHBOURS];
+        for (int i = 0; i < m; i++) {
+            int from = graphIndex[i];
+            int count = tree.nearest(i, j -> dist.get(from, graphIndex[j]), nodes, dists);
+            System.arraycopy(nodes, 0, neighbours, i * NEIGHBOURS, count);
+            System.arraycopy(dists, 0, neighbourDist, i * NEIGHBOURS, count);
+        }
+
+        this.queued = new boolean[m];
+        this.queue = new int[m];
+    }
+
+    private void push(int node) {
+        if (!queued[node]) {
+            queued[node] = true;
+            queue[(head + queueSize) % m] = node;
+            queueSize++;
+        }
+    }
+
+    private int pop() {
+        int node = queue[head];
+        head = head + 1 == m ? 0 : head + 1;
+        queueSize--;
+        queued[node] = false;
+        return node;
+    }
+
+    // Examine nodes until no move improves the tour, the step limit is reached or the clock cap runs out
+    private void run(long deadline) {
+        for (int i = 0; i < m; i++) {
+            push(i);
+        }
+        long maxSteps = (long) MAX_STEPS_PER_NODE * m;
+        while (queueSize > 0 && steps < maxSteps) {
+            if ((++steps & 63) == 0 && System.nanoTime() > deadline) {
+                timedOut = true;
+                return;
+            }
+            int a = pop();
+            if (!twoOptMove(a)) {
+                orOptMove(a);
+            }
+        }
+    }
+
+    private int next(int node) {
+        int p = pos[node] + 1;
+        return tour[p == m ? 0 : p];
+    }
+
+    private int prev(int node) {
+        int p = pos[node] - 1;
+        return tour[p < 0 ? m - 1 : p];
+    }
+
+    private int step(int node, boolean forward) {
+        return forward ? next(node) : prev(node);
+    }
+
+    private double d(int a, int b) {
+        return dist.get(graphIndex[a], graphIndex[b]);
+    }
+
+    // Cost of an edge currently in the tour
+    private double cost(int a, int b) {
+        double v = d(a, b);
+        return v == Double.POSITIVE_INFINITY ? INF_EDGE_COST : v;
+    }
+
+    // 2-opt: replace (a, an) and (c, cn) by (a, c) and (an, cn), with c from the neighbour list of a
+    private boolean twoOptMove(int a) {
+        for (int dir = 0; dir < 2; dir++) {
+            boolean forward = dir == 0;
+            int an = step(a, forward);
+            double removedA = cost(a, an);
+            for (int k = a * NEIGHBOURS; k < (a + 1) * NEIGHBOURS && neighbours[k] >= 0; k++) {
+                int c = neighbours[k];
+                double ac = neighbourDist[k];
+                if (ac >= removedA) {
+                    break;
+                }
+                int cn = step(c, forward);
+                if (c == an || cn == a) {
+                    continue;
+                }
+                double closing = d(an, cn);
+                if (closing == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                if (ac + closing - removedA - cost(c, cn) < -EPS) {
+                    twoOpt(a, an, c, cn);
+                    twoOptMoves++;
+                    push(a);
+                    push(an);
+                    push(c);
+                    push(cn);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Or-opt: move a segment of up to MAX_SEGMENT nodes ending at a next to a neighbour c of a
+    private boolean orOptMove(int a) {
+        for (int dir = 0; dir < 2; dir++) {
+            boolean forward = dir == 0;
+            int p0 = step(a, !forward);
+            double removedA = cost(p0, a);
+            int s2 = a;
+            for (int len = 1; len <= MAX_SEGMENT; len++) {
+                if (len > 1) {
+                    s2 = step(s2, forward);
+                }
+                int n0 = step(s2, forward);
+                if (s2 == p0 || n0 == p0) {
+                    break;
+                }
+                double join = d(p0, n0);
+                if (join == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double removed = removedA + cost(s2, n0);
+                for (int k = a * NEIGHBOURS; k < (a + 1) * NEIGHBOURS && neighbours[k] >= 0; k++) {
+                    int c = neighbours[k];
+                    double ac = neighbourDist[k];
+                    if (ac >= removedA) {
+                        break;
+                    }
+                    int offset = forward ? pos[c] - pos[a] : pos[a] - pos[c];
+                    if (c == p0 || (offset < 0 ? offset + m : offset) < len) {
+                        continue;
+                    }
+                    // c a..s2 x, keeping the segment direction
+                    int x = step(c, forward);
+                    if (x != p0) {
+                        double sx = d(s2, x);
+                        if (sx != Double.POSITIVE_INFINITY && join + ac + sx - removed - cost(c, x) < -EPS) {
+                            moveSegment(p0, a, s2, n0, c, x, false);
+                            orOptMoves++;
+                            push(p0);
+                            push(n0);
+                            push(a);
+                            push(s2);
+                            push(c);
+                            push(x);
+                            return true;
+                        }
+                    }
+                    // y s2..a c, reversing the segment
+                    int y = step(c, !forward);
+                    if (c != n0) {
+                        double ys2 = d(y, s2);
+                        if (ys2 != Double.POSITIVE_INFINITY && join + ac + ys2 - removed - cost(y, c) < -EPS) {
+                            moveSegment(p0, a, s2, n0, y, c, true);
+                            orOptMoves++;
+                            push(p0);
+                            push(n0);
+                            push(a);
+                            push(s2);
+                            push(c);
+                            push(y);
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Move segment s1..s2 lying between p0 and n0 into edge (c, cn), as c s2..s1 cn if reversed, else c s1..s2 cn
+    // s1 follows p0 and cn follows c in the same direction
+    private void moveSegment(int p0, int s1, int s2, int n0, int c, int cn, boolean reversed) {
+        twoOpt(p0, s1, c, cn);
+        if (c != n0) {
+            twoOpt(p0, c, n0, s2);
+        }
+        if (!reversed && s1 != s2) {
+            twoOpt(c, s2, s1, cn);
+        }
+    }
+
+    // Replace edges (a, b) and (c, d) by (a, c) and (b, d), where b and d follow a and c in the same direction
+    private void twoOpt(int a, int b, int c, int d) {
+        if (next(a) == b) {
+            reverse(pos[b], pos[c]);
+        } else {
+            reverse(pos[a], pos[d]);
+        }
+    }
+
+    // Reverse tour positions i..j going forward, or the complementary stretch when that is shorter
+    private void reverse(int i, int j) {
+        int len = (j - i + m) % m + 1;
+        if (2 * len > m) {
+            int t = i;
+            i = j + 1 == m ? 0 : j + 1;
+            j = t == 0 ? m - 1 : t - 1;
+            len = m - len;
+        }
+        for (int s = 0; s < len / 2; s++) {
+            int u = tour[i];
+            int v = tour[j];
+            tour[i] = v;
+            pos[v] = i;
+            tour[j] = u;
+            pos[u] = j;
+            i = i + 1 == m ? 0 : i + 1;
+            j = j == 0 ? m - 1 : j - 1;
+        }
+    }
+}
+
+// Objective : Tour distance traded against selected precision, lower is better
+class Objective {
+    // An infinite lambda only ranks by precision
+    static double score(double distance, double precision, double lambda) {
+        return lambda == Double.POSITIVE_INFINITY ? -precision : distance - lambda * precision;
+    }
+}
+
+// Solver : The pipeline from parsed input to a selected, routed solution
+class Solver {
+    // Selected directions and the tour through their viewpoints
+    static class Solution {
+        final Map<Viewpoint, Set<String>> selected;
+        final TourPlanner.TourResult tour;
+        final double precision;
+        // Trade-off the solution was built for and its score under it
+        final double lambda;
+        final double objective;
+
+        Solution(Map<Viewpoint, Set<String>> selected, TourPlanner.TourResult tour, double precision, double lambda) {
+            this.selected = selected;
+            this.tour = tour;
+            this.precision = precision;
+            this.lambda = lambda;
+            this.objective = Objective.score(tour.totalDistance, precision, lambda);
+        }
+
+        // The same solution scored for another lambda
+        Solution at(double lambda) {
+            return new Solution(selected, tour, precision, lambda);
+        }
+    }
+
+    static Solution solve(InputData data, SolverConfig config) {
+        return solve(data, config, (SolverWorkspace) null);
+    }
+
+    // Solve with the scratch buffers of a workspace, null to allocate fresh ones
+    static Solution solve(InputData data, SolverConfig config, SolverWorkspace workspace) {
+        long start = System.nanoTime();
+        // Build the distance matrix
+        SolverMetrics.phase("distance");
+        DistanceOracle distanceMatrix = DistanceOracle.of(
+                config.distance, data.viewpoints, data.collisionMatrix, workspace);
+        return solve(data, config, distanceMatrix, start);
+    }
+
+    // Solve on a distance oracle that is already built
+    static Solution solve(InputData data, SolverConfig config, DistanceOracle distanceMatrix) {
+        return solve(data, config, distanceMatrix, System.nanoTime());
+    }
+
+    private static Solution solve(InputData data, SolverConfig config, DistanceOracle distanceMatrix, long start) {
+        // Select directions
+        SolverMetrics.phase("select");
+        double lambda = config.lambda(data);
+        DirectionSelector.Cover cover = DirectionSelector.cover(
+                data.viewpoints, data.store, data.coverage, config.candidates);
+        Map<Viewpoint, Set<String>> selectedViewpoints = DirectionSelector.fill(cover, distanceMatrix, lambda);
+
+        // Build the tour
+        SolverMetrics.phase("tour");
+        Solution solution = route(data, config, distanceMatrix, selectedViewpoints, lambda);
+
+        // The per-viewpoint fill rule is only a heuristic, keep the unconditional fill when it scores better.
+        // It is only routed when inserting its extra viewpoints into the tour already estimates a better score,
+        // or when some of them cannot be inserted without an INF edge and only the repair can tell.
+        if (lambda != Double.POSITIVE_INFINITY) {
+            SolverMetrics.phase("fallback");
+            Map<Viewpoint, Set<String>> full = DirectionSelector.fill(cover, null, Double.POSITIVE_INFINITY);
+            if (!full.equals(selectedViewpoints)) {
+                List<Viewpoint> joining = new ArrayList<>();
+                for (Viewpoint vp : full.keySet()) {
+                    if (!selectedViewpoints.containsKey(vp)) {
+                        joining.add(vp);
+                    }
+                }
+                double length = TourPlanner.insertionEstimate(solution.tour, joining, distanceMatrix);
+                boolean routed = length == Double.POSITIVE_INFINITY
+                        || Objective.score(length, AADS.computeTotalPrecision(full), lambda) < solution.objective;
+                SolverMetrics.count("fallback_routed", routed ? 1 : 0);
+                if (routed) {
+                    Solution fallback = route(data, config, distanceMatrix, full, lambda);
+                    boolean better = fallback.objective < solution.objective;
+                    SolverMetrics.count("fallback_taken", better ? 1 : 0);
+                    if (better) {
+                        solution = fallback;
+                    }
+                }
+            }
+        }
+        SolverMetrics.result("distance", solution.tour.totalDistance);
+        SolverMetrics.result("precision", solution.precision);
+        SolverMetrics.result("lambda", lambda);
+        SolverMetrics.result("objective", solution.objective);
+
+        // Check coverage, precision validity and the tour on the coverage ledger
+        if (config.validate) {
+            SolverMetrics.phase("validate");
+            SolverMetrics.result("validation_problems", validate(data, solution));
+        }
+        SolverCounters.add("runs", 1);
+        SolverCounters.add("solve_ns", System.nanoTime() - start);
+        return solution;
+    }
+
+    // Solve once per lambda, in parallel. The parse, the distance structure, the coverage index and the
+    // covering picks are shared; each lambda only pays for its fill and its tour.
+    static List<Solution> sweep(InputData data, SolverConfig config, double[] lambdas) {
+        SolverMetrics.phase("distance");
+        DistanceOracle distanceMatrix = DistanceOracle.of(config.distance, data.viewpoints, data.collisionMatrix);
+        SolverMetrics.phase("select");
+        DirectionSelector.Cover cover = DirectionSelector.cover(
+                data.viewpoints, data.store, data.coverage, config.candidates);
+
+        SolverMetrics.phase("sweep");
+        // The unconditional fill comes first: it is the infinite lambda and the fallback of every finite one
+        List<Callable<Solution>> tasks = new ArrayList<>();
+        tasks.add(() -> sweepPoint(data, config, distanceMatrix, cover, Double.POSITIVE_INFINITY));
+        for (double lambda : lambdas) {
+            if (lambda != Double.POSITIVE_INFINITY) {
+                tasks.add(() -> sweepPoint(data, config, distanceMatrix, cover, lambda));
+            }
+        }
+        // Own threads, so the per-lambda phases stay out of this thread's metrics
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        List<Solution> solutions = new ArrayList<>();
+        try {
+            List<Future<Solution>> futures = pool.invokeAll(tasks);
+            Solution full = futures.get(0).get();
+            int next = 1;
+            for (double lambda : lambdas) {
+                if (lambda == Double.POSITIVE_INFINITY) {
+                    solutions.add(full);
+                    continue;
+                }
+                Solution solution = futures.get(next++).get();
+                Solution fallback = full.at(lambda);
+                solutions.add(fallback.objective < solution.objective ? fallback : solution);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Lambda sweep interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Lambda sweep failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        SolverMetrics.result("sweep_points", solutions.size());
+        return solutions;
+    }
+
+    // Fill, route and validate one lambda of a sweep
+    private static Solution sweepPoint(InputData data, SolverConfig config, DistanceOracle distanceMatrix,
+                                       DirectionSelector.Cover cover, double lambda) {
+        long start = System.nanoTime();
+        Solution solution = route(data, config, distanceMatrix, DirectionSelector.fill(cover, distanceMatrix, lambda),
+                lambda);
+        if (config.validate) {
+            validate(data, solution);
+        }
+        SolverCounters.add("runs", 1);
+        SolverCounters.add("solve_ns", System.nanoTime() - start);
+        return solution;
+    }
+
+    // Tour through the viewpoints of a selection
+    private static Solution route(InputData data, SolverConfig config, DistanceOracle distanceMatrix,
+                                  Map<Viewpoint, Set<String>> selected, double lambda) {
+        TourPlanner.TourResult tour = TourPlanner.buildTour(
+                data.viewpoints,
+                selected.keySet(),
+                new ArrayList<>(selected.keySet()),
+                distanceMatrix,
+                config
+        );
+        return new Solution(selected, tour, AADS.computeTotalPrecision(selected), lambda);
+    }
+
+    // Report the problems of a solution on stderr, returns how many there were
+    static int validate(InputData data, Solution solution) {
+        List<String> problems = CoverageChecker.validate(data, solution.selected, solution.tour.tour);
+        for (String problem : problems) {
+            System.err.println("❌ " + problem);
+        }
+        return problems.size();
+    }
+
+    // Write the sweep as JSON, every point flagged with whether it is on the distance/precision Pareto front
+    // and an infinite lambda as null; with a directory, each solution also goes to lambda-<value>.json there
+    static void writeSweep(List<Solution> solutions, String output, String solutionDir) {
+        SolverMetrics.phase("write");
+        StringBuilder sb = new StringBuilder("{\n  \"points\": [");
+        for (int i = 0; i < solutions.size(); i++) {
+            Solution s = solutions.get(i);
+            boolean dominated = false;
+            for (Solution t : solutions) {
+                boolean noWorse = t.tour.totalDistance <= s.tour.totalDistance && t.precision >= s.precision;
+                boolean better = t.tour.totalDistance < s.tour.totalDistance || t.precision > s.precision;
+                dominated |= noWorse && better;
+            }
+            sb.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"lambda\": ").append(s.lambda == Double.POSITIVE_INFINITY ? "null" : s.lambda)
+                    .append(", \"distance\": ").append(s.tour.totalDistance)
+                    .append(", \"precision\": ").append(s.precision)
+                    .append(", \"objective\": ").append(s.objective)
+                    .append(", \"viewpoints\": ").append(s.selected.size())
+                    .append(", \"pareto\": ").append(!dominated).append('}');
+        }
+        sb.append("\n  ]\n}\n");
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (output == null) {
+                System.out.write(bytes);
+                System.out.flush();
+            } else {
+                Files.write(Paths.get(output), bytes);
+            }
+            if (solutionDir != null) {
+                Files.createDirectories(Paths.get(solutionDir));
+                for (Solution s : solutions) {
+                    String name = s.lambda == Double.POSITIVE_INFINITY ? "inf" : Double.toString(s.lambda);
+                    try (SolutionWriter writer = SolutionWriter.toFile(Paths.get(solutionDir, "lambda-" + name + ".json").toString())) {
+                        writer.write(s.tour, s.selected, s.precision, s.tour.tour.size());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the sweep", e);
+        }
+    }
+
+    // Write a solution to standard output or a file
+    static void write(Solution solution, String output) {
+        SolverMetrics.phase("write");
+        try (SolutionWriter writer = output == null
+                ? SolutionWriter.toStdout()
+                : SolutionWriter.toFile(output)) {
+            writer.write(solution.tour, solution.selected, solution.precision, solution.tour.tour.size());
+        }
+    }
+}
+
+// InstanceDelta : Changes to a parsed instance between two runs, read from JSON such as
+// {"collision_rows": [{"id": "v3", "row": [1, -1, ...]}], "viewpoints": [{"id": "v3", "precision": {"a1": 0.4, "a2": null}}],
+//  "removed_viewpoints": ["v7"], "added_viewpoints": ["v9"]}
+// A changed row is written to its column as well and a null precision takes the direction away. The parsed
+// structures keep their size, so added viewpoints are ones of the instance that an earlier delta removed.
+class InstanceDelta {
+    // Changed collision rows by viewpoint index
+    final Map<Integer, int[]> rows = new LinkedHashMap<>();
+    // Changed precision entries
+    final List<PrecisionChange> precision = new ArrayList<>();
+    // Viewpoints taken out of and put back into the instance
+    final Set<Integer> removed = new LinkedHashSet<>();
+    final Set<Integer> added = new LinkedHashSet<>();
+
+    // PrecisionChange : New precision of a (viewpoint, direction), NaN when it is no longer available
+    static class PrecisionChange {
+        final int viewpoint;
+        final int direction;
+        final double value;
+
+        PrecisionChange(int viewpoint, int direction, double value) {
+            this.viewpoint = viewpoint;
+            this.direction = direction;
+            this.value = value;
+        }
+    }
+
+    // Read a delta file against the viewpoints and directions of the instance
+    static InstanceDelta read(Path file, ViewpointStore store) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            return parse(new JsonReader(channel), store);
+        }
+    }
+
+    static InstanceDelta parse(JsonReader reader, ViewpointStore store) {
+        InstanceDelta delta = new InstanceDelta();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "collision_rows":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        parseRow(reader, store, delta);
+                    }
+                    reader.endArray();
+                    break;
+                case "viewpoints":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        parsePrecision(reader, store, delta);
+                    }
+                    reader.endArray();
+                    break;
+                case "removed_viewpoints":
+                    parseIds(reader, store, delta.removed);
+                    break;
+                case "added_viewpoints":
+                    parseIds(reader, store, delta.added);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return delta;
+    }
+
+    private static void parseRow(JsonReader reader, ViewpointStore store, InstanceDelta delta) {
+        int vp = -1;
+        int[] row = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    vp = viewpoint(reader.nextString(), store);
+                    break;
+                case "row":
+                    row = new int[store.size];
+                    int len = 0;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        int value = reader.nextInt();
+                        if (len < row.length) {
+                            row[len] = value;
+                        }
+                        len++;
+                    }
+                    reader.endArray();
+                    if (len != row.length) {
+                        throw new RuntimeException("Delta collision row has " + len + " entries, expected " + row.length);
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (vp < 0 || row == null) {
+            throw new RuntimeException("Delta collision row without id or row at " + reader.position());
+        }
+        delta.rows.put(vp, row);
+    }
+
+    private static void parsePrecision(JsonReader reader, ViewpointStore store, InstanceDelta delta) {
+        int vp = -1;
+        List<Integer> dirs = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    vp = viewpoint(reader.nextString(), store);
+                    break;
+                case "precision":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String dirId = reader.nextName();
+                        int dir = store.directionOrdinal(dirId);
+                        if (dir < 0) {
+                            throw new RuntimeException("Unknown direction in delta: " + dirId);
+                        }
+                        dirs.add(dir);
+                        if (reader.peek() == JsonReader.Token.NULL) {
+                            reader.nextNull();
+                            values.add(Double.NaN);
+                        } else {
+                            values.add(reader.nextDouble());
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (vp < 0) {
+            throw new RuntimeException("Delta viewpoint without id at " + reader.position());
+        }
+        for (int k = 0; k < dirs.size(); k++) {
+            delta.precision.add(new PrecisionChange(vp, dirs.get(k), values.get(k)));
+        }
+    }
+
+    private static void parseIds(JsonReader reader, ViewpointStore store, Set<Integer> out) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            out.add(viewpoint(reader.nextString(), store));
+        }
+        reader.endArray();
+    }
+
+    // Index of a viewpoint id of the instance, from its number as Viewpoint does
+    private static int viewpoint(String id, ViewpointStore store) {
+        int index;
+        try {
+            index = Integer.parseInt(id.substring(1)) - 1;
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            index = -1;
+        }
+        if (index < 0 || index >= store.size || !id.equals(store.viewpointIds[index])) {
+            throw new RuntimeException("Unknown viewpoint in delta: " + id);
+        }
+        return index;
+    }
+
+    // Number of changes
+    int size() {
+        return rows.size() + precision.size() + removed.size() + added.size();
+    }
+}
+
+// IncrementalPlanner : Keep a solution valid while small parts of its instance change
+// Solves once and keeps the distance oracle, a ledger of the selected pairs and the tour. A delta then patches
+// only the changed distance rows, swaps in directions for the samples it left short, drops the viewpoints that
+// lost all their directions from the tour, inserts new ones where they are cheapest and splices around the
+// edges that became INF; selection, the nearest-neighbour build and the local search do not run again.
+class IncrementalPlanner {
+    private final InputData data;
+    private final SolverConfig config;
+    private final DistanceOracle dist;
+    private final double lambda;
+    private final CoverageLedger ledger;
+    private final Viewpoint[] byIndex;
+    // Viewpoints a delta took out of the instance; their precision row is kept here and NaN in the store,
+    // so that validation sees them without directions
+    private final boolean[] removed;
+    private final Map<Integer, double[]> removedPrecision = new HashMap<>();
+    // Selected directions, kept in step with the ledger
+    private final Map<Viewpoint, Set<String>> selected = new HashMap<>();
+    // Samples below their required cover, retried by every delta since a later one may bring their pairs back
+    private final Set<Integer> shortSamples = new LinkedHashSet<>();
+    private List<Viewpoint> tour;
+    private Solver.Solution solution;
+
+    // Solve the instance from scratch
+    IncrementalPlanner(InputData data, SolverConfig config) {
+        this.data = data;
+        this.config = config;
+        SolverMetrics.phase("distance");
+        this.dist = DistanceOracle.of(config.distance, data.viewpoints, data.collisionMatrix);
+        this.solution = Solver.solve(data, config, dist);
+        this.lambda = solution.lambda;
+        this.byIndex = new Viewpoint[data.store.size];
+        for (Viewpoint vp : data.viewpoints) {
+            byIndex[vp.index] = vp;
+        }
+        this.removed = new boolean[data.store.size];
+        this.ledger = new CoverageLedger(data.coverage, data.store);
+        for (Map.Entry<Viewpoint, Set<String>> entry : solution.selected.entrySet()) {
+            for (String dirId : entry.getValue()) {
+                select(data.coverage.pairId(entry.getKey().index, data.store.directionOrdinal(dirId)));
+            }
+        }
+        for (int s = 0; s < data.coverage.numSamples; s++) {
+            if (ledger.cover(s) < ledger.required(s)) {
+                shortSamples.add(s);
+            }
+        }
+        this.tour = new ArrayList<>(solution.tour.tour);
+    }
+
+    // Last solution
+    Solver.Solution solution() {
+        return solution;
+    }
+
+    // Apply a delta to the instance and bring the solution up to date
+    Solver.Solution apply(InstanceDelta delta) {
+        ViewpointStore store = data.store;
+        CoverageIndex index = data.coverage;
+        CollisionMatrix cm = data.collisionMatrix;
+        int dropped = 0;
+        // Samples with a pair that became usable or unusable
+        Set<Integer> touched = new LinkedHashSet<>();
+
+        for (int vp : delta.removed) {
+            if (store.isMandatory(vp)) {
+                throw new RuntimeException("IncrementalPlanner: cannot remove mandatory viewpoint " + store.viewpointIds[vp]);
+            }
+            if (removed[vp]) {
+                continue;
+            }
+            removed[vp] = true;
+            double[] row = new double[index.numDirections];
+            for (int dir = 0; dir < index.numDirections; dir++) {
+                row[dir] = store.precision(vp, dir);
+                store.setPrecision(vp, dir, Double.NaN);
+                touch(index.pairId(vp, dir), touched);
+                dropped += deselect(index.pairId(vp, dir)) ? 1 : 0;
+            }
+            removedPrecision.put(vp, row);
+        }
+        for (int vp : delta.added) {
+            if (!removed[vp]) {
+                continue;
+            }
+            removed[vp] = false;
+            double[] row = removedPrecision.remove(vp);
+            for (int dir = 0; dir < index.numDirections; dir++) {
+                store.setPrecision(vp, dir, row[dir]);
+                touch(index.pairId(vp, dir), touched);
+            }
+        }
+        for (InstanceDelta.PrecisionChange change : delta.precision) {
+            if (removed[change.viewpoint]) {
+                // Takes effect when the viewpoint is added back
+                removedPrecision.get(change.viewpoint)[change.direction] = change.value;
+                continue;
+            }
+            store.setPrecision(change.viewpoint, change.direction, change.value);
+            touch(index.pairId(change.viewpoint, change.direction), touched);
+            if (Double.isNaN(change.value)) {
+                dropped += deselect(index.pairId(change.viewpoint, change.direction)) ? 1 : 0;
+            }
+        }
+        // What those samples require follows the pairs they can still use
+        for (int s : touched) {
+            ledger.setRequired(s, usablePairs(s));
+            if (ledger.cover(s) < ledger.required(s)) {
+                shortSamples.add(s);
+            }
+        }
+        for (Map.Entry<Integer, int[]> row : delta.rows.entrySet()) {
+            int i = row.getKey();
+            int[] values = row.getValue();
+            for (int j = 0; j < values.length; j++) {
+                cm.set(i, j, values[j]);
+            }
+            dist.patch(i, data.viewpoints, cm);
+        }
+
+        // Swap in directions for the short samples, the best by the objective first
+        Map<Integer, Double> insertionCosts = new HashMap<>();
+        int swapped = 0;
+        for (Iterator<Integer> it = shortSamples.iterator(); it.hasNext(); ) {
+            int s = it.next();
+            int pair;
+            while (ledger.cover(s) < ledger.required(s) && (pair = bestSwap(s, insertionCosts)) >= 0) {
+                select(pair);
+                swapped++;
+            }
+            if (ledger.cover(s) >= ledger.required(s)) {
+                it.remove();
+            }
+        }
+
+        // Re-route: drop the viewpoints that left the selection, insert the ones that joined it
+        Viewpoint start = tour.isEmpty() ? null : tour.get(0);
+        if (start == null) {
+            tour = TourPlanner.buildTour(data.viewpoints, selected.keySet(), new ArrayList<>(selected.keySet()),
+                    dist, config).tour;
+        } else {
+            List<Viewpoint> next = new ArrayList<>(tour.size());
+            boolean[] onTour = new boolean[store.size];
+            int left = 0;
+            for (Viewpoint vp : tour) {
+                if (vp != start && !selected.containsKey(vp)) {
+                    left++;
+                } else if (next.isEmpty() || next.get(next.size() - 1) != vp) {
+                    next.add(vp);
+                    onTour[vp.index] = true;
+                }
+            }
+            if (next.size() < 2 || next.get(next.size() - 1) != start) {
+                next.add(start);
+            }
+            List<Viewpoint> joining = new ArrayList<>();
+            for (Viewpoint vp : selected.keySet()) {
+                if (!onTour[vp.index]) {
+                    joining.add(vp);
                 }
             }
+            joining.sort(Comparator.comparingInt(vp -> vp.index));
+            for (Viewpoint vp : joining) {
+                next.add(cheapestInsertion(next, vp.index) + 1, vp);
+            }
+            SolverMetrics.count("tour_left", left);
+            SolverMetrics.count("tour_joined", joining.size());
+            List<Viewpoint> transit = new ArrayList<>(selected.keySet());
+            transit.sort(Comparator.comparingInt(vp -> vp.index));
+            tour = TourPlanner.repair(splice(next, transit), transit, dist, config.repair);
         }
-        System.out.println("Viewpoints: " + totalVp);
-        System.out.println("Selected directions: " + totalDirs);
-        System.out.println("Invalid directions: " + invalidInPrecision);
+
+        SolverMetrics.count("delta_changes", delta.size());
+        SolverMetrics.count("dropped_pairs", dropped);
+        SolverMetrics.count("swapped_pairs", swapped);
+        SolverMetrics.count("unrepaired_samples", shortSamples.size());
+        Map<Viewpoint, Set<String>> result = DirectionSelector.inIndexOrder(selected);
+        result.replaceAll((vp, dirIds) -> new HashSet<>(dirIds));
+        solution = new Solver.Solution(result,
+                new TourPlanner.TourResult(tour, TourPlanner.computePathLength(tour, dist)),
+                AADS.computeTotalPrecision(result), lambda);
+        SolverMetrics.result("distance", solution.tour.totalDistance);
+        SolverMetrics.result("precision", solution.precision);
+        SolverMetrics.result("objective", solution.objective);
+        return solution;
     }
 
-    // Check if the samples are covered at least 3 times
-    static void checkSampleCoverage(
-            Map<Viewpoint, Set<String>> selected,
-            List<SamplePoint> samplePoints
-    ) {
-        // Build vpId -> Set<dirId>
-        Map<String, Set<String>> selectedIdMap = new HashMap<>();
-        for (Map.Entry<Viewpoint, Set<String>> entry : selected.entrySet()) {
-            Viewpoint vp = entry.getKey();
-            Set<String> dirIds = entry.getValue();
-            if (dirIds == null || vp == null) {
+    // Bridge every INF edge that one relay among transit can bridge, with the shortest such relay. The full
+    // repair, which searches the whole transit graph, is then left with the edges that need more hops.
+    private List<Viewpoint> splice(List<Viewpoint> path, List<Viewpoint> transit) {
+        List<Viewpoint> res = new ArrayList<>(path.size());
+        int spliced = 0;
+        for (int i = 0; i < path.size(); i++) {
+            Viewpoint a = path.get(i);
+            res.add(a);
+            if (i == path.size() - 1 || dist.get(a.index, path.get(i + 1).index) != Double.POSITIVE_INFINITY) {
                 continue;
             }
-            selectedIdMap.put(vp.id, dirIds);
+            int b = path.get(i + 1).index;
+            Viewpoint relay = null;
+            double best = Double.POSITIVE_INFINITY;
+            for (Viewpoint k : transit) {
+                double d = dist.get(a.index, k.index) + dist.get(k.index, b);
+                if (d < best && k.index != a.index && k.index != b) {
+                    relay = k;
+                    best = d;
+                }
+            }
+            if (relay != null) {
+                res.add(relay);
+                spliced++;
+            }
         }
-        int totalSamples = samplePoints.size();
-        int coveredAtLeast3 = 0;
-        int lessThan3 = 0;
-        int zeroCovered = 0;
-        int maxCover = 0;
-        int sumCover = 0;
+        SolverMetrics.count("spliced_edges", spliced);
+        return res;
+    }
 
-        List<String> badSamples = new ArrayList<>();
-        for (SamplePoint sp : samplePoints) {
-            int coverCount = 0;
-            if (sp.coveringPairs != null) {
-                for (CoveringPair cp : sp.coveringPairs) {
-                    String vpId = cp.viewpointId;
-                    String dirId = cp.directionId;
-
-                    Set<String> dirIds = selectedIdMap.get(vpId);
-                    if (dirIds != null && dirIds.contains(dirId)) {
-                        coverCount++;
-                    }
+    // Covering pair of a short sample that scores best: its precision against the detour to its viewpoint,
+    // none for one already selected; -1 when every other pair is selected, removed or without precision
+    private int bestSwap(int s, Map<Integer, Double> insertionCosts) {
+        CoverageIndex index = data.coverage;
+        int best = -1;
+        double bestScore = 0;
+        for (int k = index.sampleStart[s]; k < index.sampleStart[s + 1]; k++) {
+            int pair = index.samplePairs[k];
+            int vp = index.viewpointOf(pair);
+            double precision = data.store.precision(vp, index.directionOf(pair));
+            if (ledger.isSelected(pair) || removed[vp] || byIndex[vp] == null || Double.isNaN(precision)) {
+                continue;
+            }
+            double detour = selected.containsKey(byIndex[vp]) || (!tour.isEmpty() && tour.get(0).index == vp)
+                    ? 0.0
+                    : insertionCosts.computeIfAbsent(vp, v -> {
+                        int p = cheapestInsertion(tour, v);
+                        return p < 0 ? Double.POSITIVE_INFINITY : insertionCost(tour, p, v);
+                    });
+            double score = Objective.score(detour, precision, lambda);
+            if (best < 0 || score < bestScore) {
+                best = pair;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // Position p such that vp goes between path[p] and path[p + 1] at the least extra distance, counting an
+    // INF edge it replaces as free; the last edge when no insertion keeps both new edges feasible
+    private int cheapestInsertion(List<Viewpoint> path, int vp) {
+        int best = path.size() - 2;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (int p = 0; p + 1 < path.size(); p++) {
+            double cost = insertionCost(path, p, vp);
+            if (cost < bestCost) {
+                best = p;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    private double insertionCost(List<Viewpoint> path, int p, int vp) {
+        int a = path.get(p).index;
+        int b = path.get(p + 1).index;
+        double added = dist.get(a, vp) + dist.get(vp, b);
+        double base = dist.get(a, b);
+        return added - (Double.isInfinite(base) ? 0.0 : base);
+    }
+
+    private void select(int pair) {
+        CoverageIndex index = data.coverage;
+        ledger.add(pair);
+        selected.computeIfAbsent(byIndex[index.viewpointOf(pair)], x -> new HashSet<>())
+                .add(data.store.directionIds[index.directionOf(pair)]);
+    }
+
+    private void touch(int pair, Set<Integer> touched) {
+        CoverageIndex index = data.coverage;
+        for (int k = index.pairStart[pair]; k < index.pairStart[pair + 1]; k++) {
+            touched.add(index.pairSamples[k]);
+        }
+    }
+
+    // Distinct covering pairs of a sample that are not removed and have a precision
+    private int usablePairs(int s) {
+        CoverageIndex index = data.coverage;
+        int count = 0;
+        for (int k = index.sampleStart[s]; k < index.sampleStart[s + 1]; k++) {
+            int pair = index.samplePairs[k];
+            int vp = index.viewpointOf(pair);
+            boolean repeated = false;
+            for (int j = index.sampleStart[s]; j < k && !repeated; j++) {
+                repeated = index.samplePairs[j] == pair;
+            }
+            if (!repeated && !removed[vp] && !Double.isNaN(data.store.precision(vp, index.directionOf(pair)))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Deselect a pair, false if it was not selected
+    private boolean deselect(int pair) {
+        CoverageIndex index = data.coverage;
+        if (!ledger.remove(pair)) {
+            return false;
+        }
+        Viewpoint vp = byIndex[index.viewpointOf(pair)];
+        Set<String> dirIds = selected.get(vp);
+        dirIds.remove(data.store.directionIds[index.directionOf(pair)]);
+        if (dirIds.isEmpty()) {
+            selected.remove(vp);
+        }
+        return true;
+    }
+}
+
+// SolverWorkspace : Scratch buffers a long-running solver keeps from one instance to the next
+class SolverWorkspace {
+    // Dense distance rows of the last instance
+    private double[][] distanceRows;
+    // Bytes of the current instance line
+    byte[] line = new byte[1 << 16];
+    // Solution bytes of the current response
+    final ResponseBuffer response = new ResponseBuffer();
+    // Writer into the response, keeps its buffer and angle table between solves
+    SolutionWriter writer = SolutionWriter.to(response);
+
+    // Rows for an n-viewpoint matrix, null when the kept ones have another size; those are let go
+    // first so that the old and the new matrix are never both alive
+    double[][] distanceRows(int n) {
+        double[][] rows = distanceRows;
+        distanceRows = null;
+        return rows != null && rows.length == n ? rows : null;
+    }
+
+    void keepDistanceRows(double[][] rows) {
+        distanceRows = rows;
+    }
+
+    void releaseDistanceRows() {
+        distanceRows = null;
+    }
+
+    // Forget a response that failed half way, including whatever the writer still buffers
+    void discardResponse() {
+        response.reset();
+        writer = SolutionWriter.to(response);
+    }
+
+    // ResponseBuffer : Growable in-memory channel
+    static class ResponseBuffer implements WritableByteChannel {
+        byte[] bytes = new byte[1 << 16];
+        int size;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            if (size + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + n, bytes.length * 2));
+            }
+            src.get(bytes, size, n);
+            size += n;
+            return n;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
+
+// SolverDaemon : Long-running solver over newline-delimited instances, one JSON instance per line
+// Requests come from stdin or, one connection at a time, from a Unix domain socket. Every response
+// is a header line "ok <length>" or "error <length>" followed by that many bytes: the solution JSON
+// or the error message.
+class SolverDaemon {
+    private static final int READ_BYTES = 1 << 16;
+
+    private final SolverConfig config;
+    private final SolverWorkspace workspace = new SolverWorkspace();
+    private final ByteBuffer input = ByteBuffer.allocate(READ_BYTES);
+
+    SolverDaemon(SolverConfig config) {
+        this.config = config;
+    }
+
+    // Serve the endpoint of --daemon: stdin, or unix:<socket path>
+    static void run(SolverConfig config) throws IOException {
+        SolverDaemon daemon = new SolverDaemon(config);
+        if (config.daemon.equals("stdin")) {
+            daemon.serve(new FileInputStream(FileDescriptor.in).getChannel(),
+                    new FileOutputStream(FileDescriptor.out).getChannel());
+        } else if (config.daemon.startsWith("unix:")) {
+            daemon.listen(Paths.get(config.daemon.substring("unix:".length())));
+        } else {
+            throw new RuntimeException("Unknown daemon endpoint: " + config.daemon);
+        }
+    }
+
+    // Accept connections on a socket file, replacing a stale one
+    void listen(Path socket) throws IOException {
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) {
+                }
+            }));
+            System.err.println("Listening on " + socket);
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    serve(client, client);
+                } catch (IOException e) {
+                    // A client that goes away only ends its own connection
+                    System.err.println("Connection closed: " + e.getMessage());
                 }
             }
-            sumCover += coverCount;
-            if (coverCount > maxCover) {
-                maxCover = coverCount;
+        }
+    }
+
+    // Answer every line of in on out until end of input
+    void serve(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        input.clear().flip();
+        int length;
+        while ((length = nextLine(in)) >= 0) {
+            if (isBlank(workspace.line, length)) {
+                continue;
             }
-            if (coverCount >= 3) {
-                coveredAtLeast3++;
-            } else {
-                lessThan3++;
-                if (coverCount == 0) {
-                    zeroCovered++;
-                    if (sp.coveringPairs != null) {
-                        badSamples.add(sp.id + " (cover=" + coverCount
-                                + ", possible=" + sp.coveringPairs.size() + ")");
-                    }
+            respond(out, length);
+        }
+    }
+
+    // Solve the instance in the first length bytes of the line buffer and write the framed response
+    private void respond(WritableByteChannel out, int length) throws IOException {
+        SolverWorkspace.ResponseBuffer response = workspace.response;
+        response.reset();
+        String status = "ok";
+        try {
+            if (config.metrics != null) {
+                SolverMetrics.start();
+            }
+            SolverMetrics.phase("parse");
+            InputData data = JsonParser.parse(new JsonReader(workspace.line, 0, length));
+            Solver.Solution solution = Solver.solve(data, config, workspace);
+            SolverMetrics.phase("write");
+            workspace.writer.write(solution.tour, solution.selected, solution.precision,
+                    solution.tour.tour.size());
+            if (config.metrics != null) {
+                SolverMetrics.report(config.metrics);
+            }
+        } catch (RuntimeException | OutOfMemoryError | StackOverflowError e) {
+            // A bad instance fails its own request, the daemon keeps serving; the kept rows are let go
+            // so that an oversized instance does not leave the next request short of memory
+            workspace.releaseDistanceRows();
+            SolverMetrics.finish();
+            workspace.discardResponse();
+            status = "error";
+            String text = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            byte[] message = text.getBytes(StandardCharsets.UTF_8);
+            response.write(ByteBuffer.wrap(message));
+        }
+        byte[] header = (status + " " + response.size + "\n").getBytes(StandardCharsets.US_ASCII);
+        writeFully(out, ByteBuffer.wrap(header));
+        writeFully(out, ByteBuffer.wrap(response.bytes, 0, response.size));
+    }
+
+    // Read the next line into the workspace line buffer, without the newline; -1 at end of input
+    private int nextLine(ReadableByteChannel in) throws IOException {
+        int length = 0;
+        while (true) {
+            if (!input.hasRemaining()) {
+                input.clear();
+                int n = in.read(input);
+                input.flip();
+                if (n < 0) {
+                    return length > 0 ? length : -1;
                 }
+                continue;
+            }
+            byte[] buf = input.array();
+            int from = input.position();
+            int end = from;
+            while (end < input.limit() && buf[end] != '\n') {
+                end++;
+            }
+            int n = end - from;
+            if (length + n > workspace.line.length) {
+                workspace.line = Arrays.copyOf(workspace.line, Math.max(length + n, workspace.line.length * 2));
             }
+            System.arraycopy(buf, from, workspace.line, length, n);
+            length += n;
+            if (end < input.limit()) {
+                input.position(end + 1);
+                return length;
+            }
+            input.position(end);
         }
-        double avgCover = totalSamples == 0 ? 0 : (double) sumCover / totalSamples;
-        System.out.println("SamplePoints: " + totalSamples);
-        System.out.println("Coverage over 3: " + coveredAtLeast3);
-        System.out.println("Coverage below 3: " + lessThan3);
-        System.out.println("Zero covered sp: " + zeroCovered);
-        System.out.println("Maximum Coverage: " + maxCover);
-        System.out.println("Average Coverage: " + String.format("%.3f", avgCover));
-        if (!badSamples.isEmpty()) {
-            System.out.println("Samples that have been covered less than 3 times(format: id(cover, possible)):");
-            for (String s : badSamples) {
-                System.out.println("  " + s);
+    }
+
+    private static boolean isBlank(byte[] line, int length) {
+        for (int k = 0; k < length; k++) {
+            if (line[k] != ' ' && line[k] != '\t' && line[k] != '\r') {
+                return false;
             }
         }
+        return true;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            out.write(src);
+        }
     }
 }
 
-// DirectionSelector : Select directions based on global contribution
-class DirectionSelector {
-    // Maximizing contribution to both precision and coverage until all sample points are covered at least 3 times
-    // Immutable key representing a (viewpoint, direction) pair
-    record VpDirKey(String viewpointId, String directionId) {
+// BatchRunner : Solve every *.json instance of a directory in one JVM
+// Each instance runs on its own virtual thread (a bounded platform pool before Java 21): reading, parsing
+// and writing overlap freely, while solving goes through a fixed pool of CPU workers. An instance is only
+// admitted once its estimated heap use fits next to the instances already in flight.
+class BatchRunner {
+    // Share of the maximum heap the instances in flight may reserve
+    private static final double HEAP_SHARE = 0.7;
+    // Heap per input byte for the file bytes and the decoded structures
+    private static final long PARSE_BYTES_PER_INPUT_BYTE = 4;
+    // Heap per viewpoint besides the distances (selection, tour, repair)
+    private static final long SOLVE_BYTES_PER_VIEWPOINT = 4096;
+
+    private final SolverConfig config;
+    private final Path outputDir;
+    private final ExecutorService cpu;
+    private final HeapBudget budget;
+
+    BatchRunner(SolverConfig config, Path outputDir, ExecutorService cpu, HeapBudget budget) {
+        this.config = config;
+        this.outputDir = outputDir;
+        this.cpu = cpu;
+        this.budget = budget;
     }
 
-    // Store each (viewpoint, direction) pair's contribution
-    record DirectionContribution(
-            VpDirKey vpDirKey,
-            double precision,
-            int coveredSamplePoints,
-            double score
-    ) {
+    static void run(SolverConfig config) throws IOException {
+        Path inputDir = Paths.get(config.batch);
+        if (config.batchOut == null) {
+            throw new RuntimeException("--batch needs --batch-out=<directory>");
+        }
+        Path outputDir = Paths.get(config.batchOut);
+        if (Files.isSameFile(inputDir, Files.createDirectories(outputDir))) {
+            throw new RuntimeException("Batch output directory must differ from the input directory");
+        }
+        List<Path> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(inputDir, "*.json")) {
+            dir.forEach(inputs::add);
+        }
+        Collections.sort(inputs);
+
+        long start = System.nanoTime();
+        ExecutorService cpu = Executors.newFixedThreadPool(config.batchWorkers);
+        HeapBudget budget = new HeapBudget((long) (Runtime.getRuntime().maxMemory() * HEAP_SHARE));
+        ExecutorService tasks = virtualThreadExecutor();
+        String threads = tasks != null ? "virtual" : "platform";
+        if (tasks == null) {
+            // Enough platform threads to keep the CPU workers and the I/O busy
+            tasks = Executors.newFixedThreadPool(config.batchWorkers * 2);
+        }
+        BatchRunner runner = new BatchRunner(config, outputDir, cpu, budget);
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Path input : inputs) {
+            futures.add(tasks.submit(() -> runner.solve(input)));
+        }
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Future<Result> f : futures) {
+                results.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Batch interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Batch task failed", e.getCause());
+        } finally {
+            tasks.shutdownNow();
+            cpu.shutdownNow();
+            // Whatever finished is summarised, also when the batch is cut short
+            writeSummary(outputDir.resolve("summary.json"), results, System.nanoTime() - start, config, budget, threads);
+        }
     }
 
-    static Map<Viewpoint, Set<String>> selectDirections(
-            List<Viewpoint> viewpoints,
-            List<SamplePoint> samples
-    ) {
+    // Virtual thread per task, looked up by reflection so the code still builds on 17; null without them
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
 
-        // Build cover map (vpId, dirId) -> covered sampleIds
-        Map<String, Map<String, Set<String>>> coverageMap = new HashMap<>();
-        for (SamplePoint sp : samples) {
-            if (sp.coveringPairs == null) {
-                continue;
+    // Read, parse, solve and write one instance; failures end up in the result
+    Result solve(Path input) {
+        Result r = new Result(input.getFileName().toString());
+        long t0 = System.nanoTime();
+        long reserved = 0;
+        try {
+            // Reserve the whole instance up front: holding part of a reservation while waiting for the rest
+            // could leave every task waiting on the others
+            long bytes = estimateBytes(Files.size(input));
+            budget.acquire(bytes);
+            reserved = bytes;
+            long t1 = System.nanoTime();
+            InputData data = JsonParser.parse(new JsonReader(Files.readAllBytes(input)));
+            long t2 = System.nanoTime();
+            r.viewpoints = data.viewpoints.size();
+            Solver.Solution solution = cpu.submit(() -> Solver.solve(data, config)).get();
+            long t3 = System.nanoTime();
+            Solver.write(solution, outputDir.resolve(r.name).toString());
+            long t4 = System.nanoTime();
+
+            r.distance = solution.tour.totalDistance;
+            r.precision = solution.precision;
+            r.admitNs = t1 - t0;
+            r.parseNs = t2 - t1;
+            r.solveNs = t3 - t2;
+            r.writeNs = t4 - t3;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            r.error = "interrupted";
+        } catch (ExecutionException e) {
+            r.error = String.valueOf(e.getCause());
+        } catch (IOException | RuntimeException | OutOfMemoryError | StackOverflowError e) {
+            // An instance too large or too deep for this heap fails only its own result, like in the daemon
+            r.error = String.valueOf(e);
+        } finally {
+            budget.release(reserved);
+        }
+        r.totalNs = System.nanoTime() - t0;
+        try {
+            String name = r.name.endsWith(".json") ? r.name.substring(0, r.name.length() - 5) : r.name;
+            Files.write(outputDir.resolve(name + ".timing.json"),
+                    (r.toJson() + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            r.error = r.error == null ? "timing: " + e : r.error;
+        }
+        return r;
+    }
+
+    // Heap an instance may need, from its file size alone. The input holds the full n x n collision
+    // matrix at two bytes or more per entry, so n is at most sqrt(fileBytes / 2).
+    long estimateBytes(long fileBytes) {
+        long n = (long) Math.sqrt(fileBytes / 2.0);
+        long dense = n * n * Double.BYTES;
+        long distances;
+        switch (config.distance) {
+            case "dense":
+                distances = dense;
+                break;
+            case "float":
+                distances = dense / 4 + LazyDistanceOracle.DEFAULT_CACHE_BYTES;
+                break;
+            case "lazy":
+                distances = LazyDistanceOracle.DEFAULT_CACHE_BYTES;
+                break;
+            default:
+                distances = dense <= Runtime.getRuntime().maxMemory() / 4 ? dense : LazyDistanceOracle.DEFAULT_CACHE_BYTES;
+        }
+        return fileBytes * PARSE_BYTES_PER_INPUT_BYTE + distances + n * SOLVE_BYTES_PER_VIEWPOINT;
+    }
+
+    private static void writeSummary(Path file, List<Result> results, long wallNs, SolverConfig config,
+                                     HeapBudget budget, String threads) throws IOException {
+        int failed = 0;
+        long parseNs = 0, solveNs = 0;
+        for (Result r : results) {
+            if (r.error != null) failed++;
+            parseNs += r.parseNs;
+            solveNs += r.solveNs;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"instances\":").append(results.size())
+                .append(",\"ok\":").append(results.size() - failed)
+                .append(",\"failed\":").append(failed)
+                .append(",\"wall_ms\":").append(wallNs / 1_000_000)
+                .append(",\"parse_ms\":").append(parseNs / 1_000_000)
+                .append(",\"solve_ms\":").append(solveNs / 1_000_000)
+                .append(",\"instances_per_s\":").append(wallNs == 0 ? 0 : results.size() * 1e9 / wallNs)
+                .append(",\"threads\":\"").append(threads).append('"')
+                .append(",\"cpu_workers\":").append(config.batchWorkers)
+                .append(",\"heap_budget_bytes\":").append(budget.capacity)
+                .append(",\"peak_reserved_bytes\":").append(budget.peak())
+                .append(",\"peak_rss_kb\":").append(SolverMetrics.peakRssKb())
+                .append(",\"results\":[");
+        for (int k = 0; k < results.size(); k++) {
+            sb.append(k == 0 ? "\n  " : ",\n  ").append(results.get(k).toJson());
+        }
+        sb.append("\n]}\n");
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        System.err.println("Batch: " + (results.size() - failed) + "/" + results.size() + " solved in "
+                + wallNs / 1_000_000 + " ms, summary in " + file);
+    }
+
+    // Result : Outcome and timing of one instance
+    static class Result {
+        final String name;
+        int viewpoints;
+        double distance, precision;
+        long admitNs, parseNs, solveNs, writeNs, totalNs;
+        String error;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"instance\":").append(quote(name))
+                    .append(",\"status\":\"").append(error == null ? "ok" : "error").append('"');
+            if (error != null) {
+                sb.append(",\"error\":").append(quote(error));
+            } else {
+                sb.append(",\"viewpoints\":").append(viewpoints)
+                        .append(",\"distance\":").append(distance)
+                        .append(",\"precision\":").append(precision);
+            }
+            return sb.append(",\"admit_ms\":").append(admitNs / 1e6)
+                    .append(",\"parse_ms\":").append(parseNs / 1e6)
+                    .append(",\"solve_ms\":").append(solveNs / 1e6)
+                    .append(",\"write_ms\":").append(writeNs / 1e6)
+                    .append(",\"total_ms\":").append(totalNs / 1e6)
+                    .append('}').toString();
+        }
+
+        private static String quote(String s) {
+            StringBuilder sb = new StringBuilder("\"");
+            for (int k = 0; k < s.length(); k++) {
+                char c = s.charAt(k);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.append('"').toString();
+        }
+    }
+
+    // HeapBudget : Bytes reserved by the instances in flight, blocking while a reservation does not fit
+    // A reservation larger than the whole budget still goes through once nothing else is reserved.
+    // A lock and condition rather than synchronized, which would pin a waiting virtual thread to its carrier.
+    static class HeapBudget {
+        final long capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+        private long reserved;
+        private long peak;
+
+        HeapBudget(long capacity) {
+            this.capacity = capacity;
+        }
+
+        void acquire(long bytes) throws InterruptedException {
+            lock.lock();
+            try {
+                while (reserved > 0 && reserved + bytes > capacity) {
+                    released.await();
+                }
+                reserved += bytes;
+                peak = Math.max(peak, reserved);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long bytes) {
+            if (bytes == 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                reserved -= bytes;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long peak() {
+            lock.lock();
+            try {
+                return peak;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
+
+// SolutionCache : Solutions on disk, keyed by the input hash and the options that shape the solution
+// Entries are written to a temporary file and moved into place, so readers only ever see whole files.
+// A hit refreshes the entry's modification time; eviction drops the oldest entries until the directory
+// fits its byte bound, under a file lock shared by every process on the host.
+// Caching relies on the solver being deterministic: one key, one output, byte for byte, whatever the
+// machine's core count or timing. A change that breaks that has to be fixed in the solver, not here.
+class SolutionCache {
+    static final long DEFAULT_MAX_BYTES = 1L << 30;
+    // Part of every key, bump it when a solver change should invalidate old entries
+    private static final String VERSION = "3";
+    private static final String SUFFIX = ".solution.json";
+    // Temporary files older than this were left by a process that died while writing
+    private static final long STALE_TMP_MS = 60 * 60 * 1000;
+
+    private final Path dir;
+    private final long maxBytes;
+
+    SolutionCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create cache directory: " + dir, e);
+        }
+    }
+
+    // Hex SHA-256 of the input hash and every option that changes the solution
+    static String key(byte[] inputHash, SolverConfig config) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(inputHash);
+        digest.update(("|v=" + VERSION + "|distance=" + config.distance + "|candidates=" + config.candidates
+                + "|improve-ms=" + config.improveMs + "|repair=" + config.repair
+                + "|lambda=" + config.lambda).getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    // Copy the cached solution to the output file (stdout when null), false on a miss
+    boolean fetch(String key, String output) {
+        Path entry = dir.resolve(key + SUFFIX);
+        try (FileChannel in = FileChannel.open(entry, StandardOpenOption.READ)) {
+            try {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (NoSuchFileException e) {
+                // Evicted after the open, the open channel still reads the whole file
             }
-            for (CoveringPair cp : sp.coveringPairs) {
-                coverageMap
-                        .computeIfAbsent(cp.viewpointId, k -> new HashMap<>())
-                        .computeIfAbsent(cp.directionId, k -> new HashSet<>())
-                        .add(sp.id);
+            if (output == null) {
+                System.out.flush();
+                copy(in, new FileOutputStream(FileDescriptor.out).getChannel());
+            } else {
+                try (FileChannel out = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    copy(in, out);
+                }
             }
+            SolverMetrics.count("cache_hits", 1);
+            return true;
+        } catch (NoSuchFileException e) {
+            SolverMetrics.count("cache_misses", 1);
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read cache entry: " + entry, e);
         }
+    }
 
-        // Build viewpoint map vpId -> Viewpoint
-        Map<String, Viewpoint> viewpointById = new HashMap<>();
-        for (Viewpoint vp : viewpoints) {
-            viewpointById.put(vp.id, vp);
+    // Add a solution, then evict down to the byte bound
+    void store(String key, Solver.Solution solution) {
+        Path entry = dir.resolve(key + SUFFIX);
+        Path tmp = dir.resolve("." + key + "." + ProcessHandle.current().pid() + "."
+                + Thread.currentThread().getId() + ".tmp");
+        try (SolutionWriter writer = SolutionWriter.toFile(tmp.toString())) {
+            writer.write(solution.tour, solution.selected, solution.precision, solution.tour.tour.size());
         }
+        try {
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write cache entry: " + entry, e);
+        }
+    }
 
-        // Find high precision directions for each sample as candidate
-        Map<String, Set<String>> candidateDirections = new HashMap<>();
-
-        for (SamplePoint sp : samples) {
-            // Store precisions of each direction
-            Map<VpDirKey, Double> localScores = new HashMap<>();
-            for (CoveringPair cp : sp.coveringPairs) {
-                Viewpoint vp = viewpointById.get(cp.viewpointId);
-                if (vp == null) {
-                    continue;
+    // Delete least recently used entries until the cache fits; the JVM-wide monitor keeps two threads of one
+    // process from asking for the same file lock, which would throw instead of waiting
+    private void evict() throws IOException {
+        synchronized (SolutionCache.class) {
+            try (FileChannel lockFile = FileChannel.open(dir.resolve(".lock"), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                FileLock lock = lockFile.lock();
+                try {
+                    evictLocked();
+                } finally {
+                    lock.release();
                 }
-                Double precision = vp.precision.get(cp.directionId);
-                if (precision == null) {
-                    continue;
-                }
-                localScores.put(new VpDirKey(cp.viewpointId, cp.directionId), precision);
-            }
-            // Sort by precision
-            localScores.entrySet().stream()
-                    .sorted((a, b) -> Double.compare(b.getValue(), a.getValue()))
-                    .limit(3)
-                    .forEach(e -> {
-                        VpDirKey k = e.getKey();
-                        candidateDirections
-                                .computeIfAbsent(k.viewpointId(), x -> new HashSet<>())
-                                .add(k.directionId());
-                    });
+            }
         }
+    }
 
-        // Global contribution evaluation: score = precision * coverCount
-        // Storing global contribution information
-        List<DirectionContribution> contributions = new ArrayList<>();
-
-        // Traverse all
-        for (Map.Entry<String, Set<String>> e : candidateDirections.entrySet()) {
-            // Get corresponding viewpoint
-            String vpId = e.getKey();
-            Viewpoint vp = viewpointById.get(vpId);
-            if (vp == null) {
-                continue;
-            }
-            // Traverse all directions of this viewpoint
-            for (String dirId : e.getValue()) {
-                Double precision = vp.precision.get(dirId);
-                if (precision == null) {
+    // Called with the cache lock held
+    private void evictLocked() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                BasicFileAttributes a;
+                try {
+                    a = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
                     continue;
                 }
-
-                // Calculate cover count
-                int coverCount = 0;
-                Map<String, Set<String>> map = coverageMap.get(vpId);
-                if (map != null && map.get(dirId) != null) {
-                    coverCount = map.get(dirId).size();
+                if (name.endsWith(".tmp") && now - a.lastModifiedTime().toMillis() > STALE_TMP_MS) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(SUFFIX)) {
+                    entries.add(file);
+                    attributes.add(a);
+                    total += a.size();
                 }
-                // Calculate score
-                contributions.add(new DirectionContribution(
-                        new VpDirKey(vpId, dirId),
-                        precision,
-                        coverCount,
-                        precision * coverCount
-                ));
             }
         }
+        if (total <= maxBytes) {
+            return;
+        }
+        Integer[] order = new Integer[entries.size()];
+        for (int k = 0; k < order.length; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, Comparator.comparing(k -> attributes.get(k).lastModifiedTime()));
+        for (int k = 0; k < order.length && total > maxBytes; k++) {
+            Files.deleteIfExists(entries.get(order[k]));
+            total -= attributes.get(order[k]).size();
+            SolverMetrics.count("cache_evictions", 1);
+        }
+    }
 
-        // Sort by contribution score
-        contributions.sort((a, b) -> Double.compare(b.score(), a.score()));
-
-        // Greedy selection under coverage constraints
-        // Track remaining coverage demand for each sample
-        Map<String, Integer> remainNeed = new HashMap<>();
-        for (SamplePoint sp : samples) {
-            remainNeed.put(sp.id, 3);
+    private static void copy(FileChannel in, WritableByteChannel out) throws IOException {
+        long size = in.size();
+        for (long pos = 0; pos < size; ) {
+            pos += in.transferTo(pos, size - pos, out);
         }
-        // Final selected directions grouped by viewpoint
-        Map<Viewpoint, Set<String>> result = new HashMap<>();
+    }
+}
 
-        // Select directions greedily
-        boolean allSatisfied = true;
-        for (int idx1 = 0; idx1 < contributions.size(); idx1++) {
-            DirectionContribution dc = contributions.get(idx1);
-            // Get corresponding viewpoint
-            VpDirKey k = dc.vpDirKey();
-            Viewpoint vp = viewpointById.get(k.viewpointId());
-
-            // Add direction to result
-            result
-                    .computeIfAbsent(vp, x -> new HashSet<>())
-                    .add(k.directionId());
-
-            // Update remaining need
-            Map<String, Set<String>> map = coverageMap.get(k.viewpointId());
-            if (map != null && map.get(k.directionId()) != null) {
-                for (String sampleId : map.get(k.directionId())) {
-                    int v = remainNeed.get(sampleId);
-                    if (v > 0) {
-                        remainNeed.put(sampleId, v - 1);
-                    }
-                }
-            }
+// SolverConfig : Command line options (--name=value)
+class SolverConfig {
+    // Distance storage: auto, dense, float or lazy
+    String distance = "auto";
+    // Candidate pairs kept per sample in direction selection
+    int candidates = DirectionSelector.DEFAULT_CANDIDATES_PER_SAMPLE;
+    // Wall-clock cap of the local search in milliseconds, 0 disables it
+    long improveMs = TourImprover.DEFAULT_BUDGET_MS;
+    // INF edge repair: shortest (spliced shortest paths) or relay (one or two relay points)
+    String repair = "shortest";
+    // Solution file, null for standard output
+    String output = null;
+    // Where to report the metrics line (stderr or a file to append to), null to not record
+    String metrics = null;
+    // Register the SolverCounters MBean
+    boolean jmx = false;
+    // Keep running and solve a stream of instances: stdin or unix:<socket path>, null for one instance
+    String daemon = null;
+    // Solution cache directory, null for no cache
+    String cache = null;
+    // Size bound of the solution cache
+    long cacheBytes = SolutionCache.DEFAULT_MAX_BYTES;
+    // Instance file, null for standard input
+    String input = null;
+    // Binary snapshot of the instance: loaded when it matches the input, written otherwise
+    String snapshot = null;
+    // Directory of instances to solve in one run, null for a single instance
+    String batch = null;
+    // Directory for the batch solutions, timings and summary
+    String batchOut = null;
+    // Instances solved at the same time in batch mode
+    int batchWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    // Validate every solution (coverage, precision, tour) and report problems on stderr
+    boolean validate = true;
+    // Weight of precision against distance in the objective, NaN for the instance's own lambda
+    double lambda = Double.NaN;
+    // Lambdas to solve in one run and report as a trade-off curve, null for a single solve
+    double[] sweep = null;
+    // Directory for the solution of every sweep point, null to only report the curve
+    String sweepOut = null;
+    // Delta files applied in order to the solved instance, null for none
+    String[] delta = null;
 
-            // Check if all need satisfied
-            for (int v : remainNeed.values()) {
-                if (v > 0) {
-                    allSatisfied = false;
-                    break;
-                }
+    // Parse the command line
+    static SolverConfig parse(String[] args) {
+        SolverConfig config = new SolverConfig();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new RuntimeException("Unknown option: " + arg);
             }
-            if (allSatisfied) {
-                // Add the remaining positive precision direction to result
-                for (int idx2 = idx1 + 1; idx2 < contributions.size(); idx2++) {
-                    DirectionContribution next = contributions.get(idx2);
-                    if (next.score() <= 0) {
-                        break;
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "distance":
+                    config.distance = value;
+                    break;
+                case "improve-ms":
+                    config.improveMs = Long.parseLong(value);
+                    if (config.improveMs < 0) {
+                        throw new RuntimeException("Improvement budget must not be negative: " + value);
                     }
-                    result
-                            .computeIfAbsent(viewpointById.get(next.vpDirKey().viewpointId()), x -> new HashSet<>())
-                            .add(next.vpDirKey().directionId());
-                }
-                break;
+                    break;
+                case "repair":
+                    if (!value.equals("shortest") && !value.equals("relay")) {
+                        throw new RuntimeException("Unknown repair strategy: " + value);
+                    }
+                    config.repair = value;
+                    break;
+                case "output":
+                    config.output = value.isEmpty() || value.equals("-") ? null : value;
+                    break;
+                case "metrics":
+                    config.metrics = value.isEmpty() ? null : value;
+                    break;
+                case "validate":
+                    config.validate = Boolean.parseBoolean(value);
+                    break;
+                case "cache":
+                    config.cache = value.isEmpty() ? null : value;
+                    break;
+                case "cache-bytes":
+                    config.cacheBytes = Long.parseLong(value);
+                    if (config.cacheBytes < 0) {
+                        throw new RuntimeException("Cache size must not be negative: " + value);
+                    }
+                    break;
+                case "input":
+                    config.input = value.isEmpty() || value.equals("-") ? null : value;
+                    break;
+                case "snapshot":
+                    config.snapshot = value.isEmpty() ? null : value;
+                    break;
+                case "batch":
+                    config.batch = value.isEmpty() ? null : value;
+                    break;
+                case "batch-out":
+                    config.batchOut = value.isEmpty() ? null : value;
+                    break;
+                case "batch-workers":
+                    config.batchWorkers = Integer.parseInt(value);
+                    if (config.batchWorkers < 1) {
+                        throw new RuntimeException("Batch workers must be positive: " + value);
+                    }
+                    break;
+                case "daemon":
+                    config.daemon = value.isEmpty() ? null : value;
+                    break;
+                case "jmx":
+                    config.jmx = Boolean.parseBoolean(value);
+                    break;
+                case "lambda":
+                    config.lambda = value.isEmpty() ? Double.NaN : parseLambda(value);
+                    break;
+                case "sweep":
+                    config.sweep = value.isEmpty() ? null
+                            : Arrays.stream(value.split(",")).mapToDouble(SolverConfig::parseLambda).toArray();
+                    break;
+                case "sweep-out":
+                    config.sweepOut = value.isEmpty() ? null : value;
+                    break;
+                case "delta":
+                    config.delta = value.isEmpty() ? null : value.split(",");
+                    break;
+                case "candidates":
+                    config.candidates = Integer.parseInt(value);
+                    if (config.candidates < 1) {
+                        throw new RuntimeException("Candidates per sample must be positive: " + value);
+                    }
+                    break;
+                default:
+                    throw new RuntimeException("Unknown option: " + arg);
             }
         }
-        return result;
+        return config;
     }
-}
-
-// TourPlanner : Build a closed tour
-class TourPlanner {
-    // Save the tour
-    static class TourResult {
-        public final List<Viewpoint> tour;      // tour
-        public final double totalDistance;      // total travel distance
 
-        // Constructor
-        public TourResult(List<Viewpoint> tour, double totalDistance) {
-            this.tour = tour;
-            this.totalDistance = totalDistance;
+    // Lambda a solve uses: the option, else the instance's, else only precision counts
+    double lambda(InputData data) {
+        if (!Double.isNaN(lambda)) {
+            return lambda;
         }
+        return Double.isNaN(data.lambda) ? Double.POSITIVE_INFINITY : data.lambda;
     }
 
-    // Main method to build a tour
-    static TourResult buildTour(
-            List<Viewpoint> allVps, // all viewpoints
-            Collection<Viewpoint> mustVisit,    // viewpoints that must be visited
-            List<Viewpoint> allowedTransit, // viewpoints that can be visited as transit
-            double[][] dist
-    ) {
-        // Check whether there are viewpoints to visit
-        if (mustVisit == null || mustVisit.isEmpty()) {
-            return new TourResult(new ArrayList<>(), 0.0);
+    // A non-negative lambda, inf for one that only counts precision
+    private static double parseLambda(String value) {
+        double lambda = value.equalsIgnoreCase("inf") || value.equalsIgnoreCase("infinity")
+                ? Double.POSITIVE_INFINITY
+                : Double.parseDouble(value);
+        if (!(lambda >= 0)) {
+            throw new RuntimeException("Lambda must not be negative: " + value);
         }
+        return lambda;
+    }
+}
 
-        // Find the start viewpoint
-        Viewpoint start = null;
-        for (Viewpoint vp : allVps) {
-            if (vp.isMandatory) {
-                start = vp;
-                break;
+// =============Instance Generation/Stress==============
+// InstanceGenerator : Seeded synthetic instances in the schema JsonParser reads
+// Streams its output, and draws collisions from a hash of the pair so even the n×n matrix needs no storage
+class InstanceGenerator {
+    int viewpoints = 1000;
+    int samples = -1;                   // SAMPLES_PER_VIEWPOINT per viewpoint when negative
+    int directions = 5;
+    int minPairs = 4;                   // covering pairs drawn per sample
+    int maxPairs = 10;
+    double blocked = 0.2;               // fraction of viewpoint pairs in collision
+    double availability = 0.7;          // chance that a viewpoint offers a direction
+    String mandatory = "first";         // mandatory viewpoint: first, random or none
+    double lambda = 0.5;
+    long seed = 1;
+    String output = null;               // standard output when null
+
+    static final int SAMPLES_PER_VIEWPOINT = 4;
+
+    // Parse --name=value options; pairs take a range such as 4-10
+    static InstanceGenerator parse(String[] args) {
+        InstanceGenerator g = new InstanceGenerator();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new RuntimeException("Unknown option: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "viewpoints":
+                    g.viewpoints = Integer.parseInt(value);
+                    break;
+                case "samples":
+                    g.samples = Integer.parseInt(value);
+                    break;
+                case "directions":
+                    g.directions = Integer.parseInt(value);
+                    break;
+                case "pairs":
+                    int dash = value.indexOf('-');
+                    g.minPairs = Integer.parseInt(dash < 0 ? value : value.substring(0, dash));
+                    g.maxPairs = Integer.parseInt(dash < 0 ? value : value.substring(dash + 1));
+                    break;
+                case "blocked":
+                    g.blocked = Double.parseDouble(value);
+                    break;
+                case "availability":
+                    g.availability = Double.parseDouble(value);
+                    break;
+                case "mandatory":
+                    g.mandatory = value;
+                    break;
+                case "lambda":
+                    g.lambda = Double.parseDouble(value);
+                    break;
+                case "seed":
+                    g.seed = Long.parseLong(value);
+                    break;
+                case "output":
+                    g.output = value.isEmpty() || value.equals("-") ? null : value;
+                    break;
+                default:
+                    throw new RuntimeException("Unknown option: " + arg);
             }
         }
-        // If there is no mandatory viewpoint, start from the first viewpoint in mustVisit
-        if (start == null) {
-            start = mustVisit.iterator().next();
-        }
+        g.validate();
+        return g;
+    }
 
-        // Make sure allowedTransit contains mustVisit (good for backtrack)
-        LinkedHashSet<Viewpoint> transitSet = new LinkedHashSet<>(allowedTransit);
-        transitSet.addAll(mustVisit);
-        List<Viewpoint> fullTransit = new ArrayList<>(transitSet);
+    private void validate() {
+        if (viewpoints < 1 || directions < 1 || minPairs < 0 || maxPairs < minPairs) {
+            throw new RuntimeException("InstanceGenerator: invalid counts");
+        }
+        if (blocked < 0 || blocked > 1 || availability < 0 || availability > 1) {
+            throw new RuntimeException("InstanceGenerator: densities must lie in [0, 1]");
+        }
+        if (!mandatory.equals("first") && !mandatory.equals("random") && !mandatory.equals("none")) {
+            throw new RuntimeException("InstanceGenerator: unknown mandatory placement: " + mandatory);
+        }
+    }
 
-        // Nearest Neighbor Path
-        List<Viewpoint> nnPath = buildNearestNeighborPath(mustVisit, dist, start);
+    int sampleCount() {
+        return samples < 0 ? SAMPLES_PER_VIEWPOINT * viewpoints : samples;
+    }
 
-        // Closed loop to the Beginning
-        nnPath.add(start);
+    // Default instance of a given size, in memory
+    static byte[] generate(int viewpoints, long seed) {
+        InstanceGenerator g = new InstanceGenerator();
+        g.viewpoints = viewpoints;
+        g.seed = seed;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            g.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
 
-        // Insert a stopover point so that the path has no INF edges
-        List<Viewpoint> repaired = repairPath(nnPath, fullTransit, dist);
+    // Rough output size, dominated by the collision matrix
+    long estimateBytes() {
+        long n = viewpoints;
+        return (long) (n * n * (2 + blocked)) + n * 160
+                + (long) sampleCount() * (100 + 14L * (minPairs + maxPairs) / 2);
+    }
 
-        // Calculate the total distance
-        double totalDist = computePathLength(repaired, dist);
-        return new TourResult(repaired, totalDist);
+    // Whether viewpoints i and j collide, symmetric in i and j
+    boolean isBlocked(int i, int j) {
+        long a = Math.min(i, j);
+        long b = Math.max(i, j);
+        long h = seed ^ (a * 0x9E3779B97F4A7C15L) ^ (b * 0xC2B2AE3D27D4EB4FL);
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        return (h >>> 11) * 0x1.0p-53 < blocked;
     }
 
-    // Nearest Neighbor Path Construct
-    private static List<Viewpoint> buildNearestNeighborPath(
-            Collection<Viewpoint> mustVisit,
-            double[][] dist,
-            Viewpoint start
-    ) {
-        // Ensure unique viewpoint list while preserving insertion order
-        List<Viewpoint> nodes = new ArrayList<>(new LinkedHashSet<>(mustVisit));
+    void write(OutputStream sink) throws IOException {
+        OutputStream out = new BufferedOutputStream(sink, 1 << 20);
+        SplittableRandom r = new SplittableRandom(seed);
+        int mandatoryIndex = mandatory.equals("first") ? 0 : mandatory.equals("random") ? r.nextInt(viewpoints) : -1;
 
-        // Ensure to include a starting point
-        if (!nodes.contains(start)) {
-            nodes.add(0, start);
+        ascii(out, "{\"metadata\":{\"lambda\":" + lambda + "},\"directions\":[");
+        for (int d = 0; d < directions; d++) {
+            ascii(out, (d > 0 ? ",[" : "[") + r.nextDouble(-1, 1) + "," + r.nextDouble(-1, 1) + ","
+                    + r.nextDouble(-1, 1) + "]");
         }
 
-        int m = nodes.size();
-        boolean[] visited = new boolean[m];
-
-        // Build a local index map: vp -> local index, for marking visited
-        Map<Viewpoint, Integer> vp2local = new HashMap<>();
-        for (int i = 0; i < m; i++) {
-            vp2local.put(nodes.get(i), i);
+        // Viewpoints, remembering the directions each one offers
+        int[][] offers = new int[viewpoints][];
+        int[] scratch = new int[directions];
+        ascii(out, "],\"viewpoints\":[");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < viewpoints; i++) {
+            sb.setLength(0);
+            sb.append(i > 0 ? ",{" : "{").append("\"id\":\"v").append(i + 1)
+                    .append("\",\"is_mandatory\":").append(i == mandatoryIndex)
+                    .append(",\"coordinates\":{\"x\":").append(r.nextDouble(0, 1000))
+                    .append(",\"y\":").append(r.nextDouble(0, 1000))
+                    .append(",\"z\":").append(r.nextDouble(0, 100)).append("},\"precision\":{");
+            int count = 0;
+            for (int d = 0; d < directions; d++) {
+                if (r.nextDouble() < availability) {
+                    if (count > 0) sb.append(',');
+                    sb.append("\"a").append(d + 1).append("\":").append(r.nextDouble());
+                    scratch[count++] = d;
+                }
+            }
+            offers[i] = Arrays.copyOf(scratch, count);
+            ascii(out, sb.append("}}"));
         }
-        int currentLocal = vp2local.get(start);
-        visited[currentLocal] = true;
-
-        List<Viewpoint> path = new ArrayList<>();
-        path.add(start);
-
-        // Main loop
-        // At each step, choose the closest unvisited viewpoint
-        // INF edges are allowed and will later be repaired via allowedTransit
-        while (path.size() < m) {
-            Viewpoint currentVp = path.get(path.size() - 1);
-            int gi = currentVp.index;
 
-            int bestLocal = -1;
-            double bestDist = Double.POSITIVE_INFINITY;
+        // Samples, each covered by offered (viewpoint, direction) pairs only
+        ascii(out, "],\"sample_points\":[");
+        for (int s = 0; s < sampleCount(); s++) {
+            sb.setLength(0);
+            sb.append(s > 0 ? ",{" : "{").append("\"id\":\"s").append(s + 1)
+                    .append("\",\"coordinates\":{\"x\":").append(r.nextDouble())
+                    .append(",\"y\":").append(r.nextDouble()).append(",\"z\":").append(r.nextDouble())
+                    .append("},\"covering_pairs\":[");
+            int pairs = minPairs + r.nextInt(maxPairs - minPairs + 1);
+            int written = 0;
+            for (int p = 0; p < pairs; p++) {
+                int v = r.nextInt(viewpoints);
+                if (offers[v].length == 0) continue;
+                int d = offers[v][r.nextInt(offers[v].length)];
+                sb.append(written++ > 0 ? ",[\"v" : "[\"v").append(v + 1).append("\",\"a").append(d + 1).append("\"]");
+            }
+            ascii(out, sb.append("]}"));
+        }
 
-            for (int j = 0; j < m; j++) {
-                if (visited[j]) {
-                    continue;
-                }
-                Viewpoint cand = nodes.get(j);
-                double d = dist[gi][cand.index];
-                if (bestLocal == -1 || d < bestDist) {
-                    bestDist = d;
-                    bestLocal = j;
+        // Collision matrix, one row buffer at a time
+        ascii(out, "],\"collision_matrix\":[");
+        byte[] row = new byte[3 * viewpoints + 2];
+        for (int i = 0; i < viewpoints; i++) {
+            int k = 0;
+            if (i > 0) row[k++] = ',';
+            row[k++] = '[';
+            for (int j = 0; j < viewpoints; j++) {
+                if (j > 0) row[k++] = ',';
+                if (i == j) {
+                    row[k++] = '0';
+                } else if (isBlocked(i, j)) {
+                    row[k++] = '-';
+                    row[k++] = '1';
+                } else {
+                    row[k++] = '1';
                 }
             }
-            // In theory this should never happen unless mustVisit is empty
-            if (bestLocal == -1) {
-                System.err.println("TourPlanner: The nearest neighbor cannot find the next node and end early。");
-                break;
+            row[k++] = ']';
+            out.write(row, 0, k);
+        }
+        ascii(out, "]}\n");
+        out.flush();
+    }
+
+    private static void ascii(OutputStream out, CharSequence s) throws IOException {
+        int len = s.length();
+        for (int k = 0; k < len; k++) {
+            out.write(s.charAt(k));
+        }
+    }
+
+    // Write one instance to --output=<path> or standard output
+    public static void main(String[] args) throws IOException {
+        InstanceGenerator g = parse(args);
+        if (g.output == null) {
+            g.write(new FileOutputStream(FileDescriptor.out));
+        } else {
+            try (OutputStream out = new FileOutputStream(g.output)) {
+                g.write(out);
             }
-            // Mark the bestLocal as visited and add it to the path
-            visited[bestLocal] = true;
-            path.add(nodes.get(bestLocal));
         }
-        return path;
     }
+}
 
-    // Repair a path by replacing any INF edges with feasible relay points
-    private static List<Viewpoint> repairPath(
-            List<Viewpoint> path,
-            List<Viewpoint> allowedTransit,
-            double[][] dist
-    ) {
-        // Copy the path so original is not modified
-        List<Viewpoint> res = new ArrayList<>(path);
-        boolean changed = true;
+// StressRunner : Solve generated instances of growing size, one child JVM each, and record every phase
+// Prints one JSON line per size with the child's SolverMetrics line: per-phase time, allocation, GC and peak RSS
+class StressRunner {
+    static final int[] DEFAULT_SIZES = {1000, 2000, 5000, 10000, 20000, 50000, 100000};
 
-        // Continue repairing until a full pass finds no changes
-        while (changed) {
-            changed = false;
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--child")) {
+            runChild(args[1], Arrays.copyOfRange(args, 2, args.length));
+            return;
+        }
 
-            // Scan adjacent pairs
-            for (int i = 0; i < res.size() - 1; i++) {
-                Viewpoint A = res.get(i);
-                Viewpoint B = res.get(i + 1);
+        int[] sizes = DEFAULT_SIZES;
+        List<String> generatorArgs = new ArrayList<>();
+        List<String> solverArgs = new ArrayList<>();
+        List<String> jvmArgs = new ArrayList<>();
+        File workDir = new File(System.getProperty("java.io.tmpdir"));
+        for (String arg : args) {
+            if (arg.startsWith("--sizes=")) {
+                sizes = Arrays.stream(arg.substring("--sizes=".length()).split(","))
+                        .mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("--work-dir=")) {
+                workDir = new File(arg.substring("--work-dir=".length()));
+            } else if (arg.startsWith("--jvm=")) {
+                jvmArgs.add(arg.substring("--jvm=".length()));
+            } else if (arg.startsWith("--solver=")) {
+                solverArgs.add(arg.substring("--solver=".length()));
+            } else {
+                generatorArgs.add(arg);
+            }
+        }
 
-                // If A → B is valid (not INF), nothing to repair
-                if (dist[A.index][B.index] != Double.POSITIVE_INFINITY) {
-                    continue;
-                }
+        for (int n : sizes) {
+            List<String> genArgs = new ArrayList<>(generatorArgs);
+            genArgs.add("--viewpoints=" + n);
+            InstanceGenerator g = InstanceGenerator.parse(genArgs.toArray(new String[0]));
+            StringBuilder record = new StringBuilder();
+            record.append("{\"viewpoints\":").append(n).append(",\"samples\":").append(g.sampleCount());
 
-                // Attempt single-hop repair: A → K → B
-                Viewpoint K = findSingleHop(A, B, allowedTransit, dist);
-                if (K != null) {
-                    // System.out.printf("[REPAIR-1] %s → %s → %s\n", A.id, K.id, B.id);
-                    // Insert K between A and B
-                    res.add(i + 1, K);
-                    // Restart scanning from the beginning, because path changed
-                    changed = true;
-                    break; // 重新从头扫描
+            long needed = g.estimateBytes();
+            if (needed > workDir.getUsableSpace()) {
+                System.out.println(record.append(",\"status\":\"skipped\",\"input_bytes\":").append(needed).append('}'));
+                continue;
+            }
+            File input = File.createTempFile("aads-" + n + "-", ".json", workDir);
+            try {
+                long t = System.nanoTime();
+                try (OutputStream out = new FileOutputStream(input)) {
+                    g.write(out);
                 }
+                record.append(",\"input_bytes\":").append(input.length())
+                        .append(",\"generate_ms\":").append((System.nanoTime() - t) / 1_000_000);
 
-                // Attempt double-hop repair: A → K1 → K2 → B
-                List<Viewpoint> two = findTwoHop(A, B, allowedTransit, dist);
-                if (two != null) {
-                    // System.out.printf("[REPAIR-2] %s → %s → %s → %s\n",A.id, two.get(0).id, two.get(1).id, B.id);
-                    // Insert K1 and K2 between A and B
-                    res.add(i + 1, two.get(0));
-                    res.add(i + 2, two.get(1));
-                    // Restart scanning from the beginning, because path changed
-                    changed = true;
-                    break; // 重新从头扫描
+                List<String> command = new ArrayList<>();
+                command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+                command.addAll(jvmArgs);
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add("StressRunner");
+                command.add("--child");
+                command.add(input.getPath());
+                command.addAll(solverArgs);
+                Process child = new ProcessBuilder(command)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                String result = new String(child.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+                int exit = child.waitFor();
+                if (exit == 0 && result.startsWith("{")) {
+                    record.append(",\"status\":\"ok\",").append(result, 1, result.length());
+                } else {
+                    record.append(",\"status\":\"failed\",\"exit\":").append(exit).append('}');
                 }
-
-                // No repair found: This A → B cannot be fixed with the given set
-                throw new RuntimeException("TourPlanner: Path segments cannot be repaired: "
-                        + A.id + " → " + B.id);
+            } finally {
+                input.delete();
             }
+            System.out.println(record);
         }
-        return res;
     }
 
-    // Try single-hop repair for an INF edge A → B
-    // Look for any viewpoint K in allowedTransit such that: dist[A][K] < INF  AND  dist[K][B] < INF
-    private static Viewpoint findSingleHop(
-            Viewpoint A,
-            Viewpoint B,
-            List<Viewpoint> allowedTransit,
-            double[][] dist
-    ) {
-        int Ai = A.index;
-        int Bi = B.index;
-
-        for (Viewpoint K : allowedTransit) {
-            int Ki = K.index;
-            // Both sides must be reachable
-            if (dist[Ai][Ki] != Double.POSITIVE_INFINITY &&
-                    dist[Ki][Bi] != Double.POSITIVE_INFINITY) {
-                return K;
-            }
+    // Child side: solve a file as AADS.main does and print the metrics line
+    private static void runChild(String path, String[] solverArgs) throws IOException {
+        SolverConfig config = SolverConfig.parse(solverArgs);
+        SolverMetrics.start();
+        SolverMetrics.phase("parse");
+        InputData data;
+        try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+            data = JsonParser.parse(new JsonReader(channel));
         }
-        return null;
+        Solver.Solution solution = Solver.solve(data, config);
+        Solver.write(solution, "/dev/null");
+        SolverMetrics.result("tour_size", solution.tour.tour.size());
+        System.out.println(SolverMetrics.finish());
     }
+}
 
-    // Try double-hop repair for an INF edge A → B
-    private static List<Viewpoint> findTwoHop(
-            Viewpoint A,
-            Viewpoint B,
-            List<Viewpoint> allowedTransit,
-            double[][] dist
-    ) {
-        int Ai = A.index;
-        int Bi = B.index;
+public class AADS {
+    public static void main(String[] args) throws Exception {
+        SolverConfig config = SolverConfig.parse(args);
+        if (config.metrics != null) {
+            SolverMetrics.start();
+        }
+        if (config.jmx) {
+            SolverCounters.register();
+        }
+        if (config.daemon != null) {
+            SolverDaemon.run(config);
+            return;
+        }
+        if (config.batch != null) {
+            BatchRunner.run(config);
+            return;
+        }
 
-        for (Viewpoint K1 : allowedTransit) {
-            int K1i = K1.index;
-            // First hop must be reachable: A → K1
-            if (dist[Ai][K1i] == Double.POSITIVE_INFINITY) continue;
-            for (Viewpoint K2 : allowedTransit) {
-                int K2i = K2.index;
-                // Check if K1 → K2 → B is reachable
-                if (dist[K1i][K2i] != Double.POSITIVE_INFINITY &&
-                        dist[K2i][Bi] != Double.POSITIVE_INFINITY) {
-                    return Arrays.asList(K1, K2);
-                }
+        if (config.sweep != null) {
+            SolverMetrics.phase("parse");
+            InputData data = JsonParser.parseInput(config);
+            Solver.writeSweep(Solver.sweep(data, config, config.sweep), config.output, config.sweepOut);
+            if (config.metrics != null) {
+                SolverMetrics.report(config.metrics);
             }
+            return;
         }
-        return null;
-    }
 
-    // Compute total path length
-    // For each consecutive pair A → B:
-    // If dist[A][B] is finite, add it.
-    // If it is INF, print a warning (should not happen after repair)
-    private static double computePathLength(List<Viewpoint> path, double[][] dist) {
-        double total = 0.0;
-        for (int i = 0; i < path.size() - 1; i++) {
-            Viewpoint A = path.get(i);
-            Viewpoint B = path.get(i + 1);
-            double d = dist[A.index][B.index];
-            if (Double.isInfinite(d)) {
-                System.err.println("Warning: INF edges still exist in the path: " + A.id + " → " + B.id);
-            } else {
-                total += d;
+        if (config.delta != null) {
+            SolverMetrics.phase("parse");
+            InputData data = JsonParser.parseInput(config);
+            IncrementalPlanner planner = new IncrementalPlanner(data, config);
+            Solver.Solution solution = planner.solution();
+            for (String file : config.delta) {
+                SolverMetrics.phase("delta");
+                solution = planner.apply(InstanceDelta.read(Paths.get(file), data.store));
+                if (config.validate) {
+                    SolverMetrics.result("validation_problems", Solver.validate(data, solution));
+                }
             }
+            Solver.write(solution, config.output);
+            if (config.metrics != null) {
+                SolverMetrics.report(config.metrics);
+            }
+            return;
         }
-        return total;
-    }
-}
 
-public class AADS {
-    public static void main(String[] args) throws Exception {
-        // TimerUtil timer = new TimerUtil();
-        // timer.start();
+        // A cached solution of a file input is found before parsing it
+        SolutionCache cache = config.cache == null ? null : new SolutionCache(Paths.get(config.cache), config.cacheBytes);
+        byte[] inputHash = null;
+        if (cache != null && config.input != null) {
+            SolverMetrics.phase("cache");
+            inputHash = InstanceSnapshot.sha256(Paths.get(config.input));
+            if (cache.fetch(SolutionCache.key(inputHash, config), config.output)) {
+                if (config.metrics != null) {
+                    SolverMetrics.report(config.metrics);
+                }
+                return;
+            }
+        }
 
         // Parse the input data
-        InputData data = JsonParser.parseInput();
+        SolverMetrics.phase("parse");
+        InputData data = JsonParser.parseInput(config, inputHash);
+        // Stdin is only hashed while parsing
+        if (cache != null && config.input == null && cache.fetch(SolutionCache.key(data.sourceHash, config), config.output)) {
+            if (config.metrics != null) {
+                SolverMetrics.report(config.metrics);
+            }
+            return;
+        }
         // System.out.println("✅ Parse Success!");
         // System.out.println("Viewpoints: " + data.viewpoints.size());
         // System.out.println(data.viewpoints.get(0).toString());
@@ -1015,9 +7398,8 @@ public class AADS {
         // System.out.println(data.samplePoints.get(0).toString());
         // System.out.println("Directions: " + data.directions.size());
         // System.out.println(data.directions.get(0).toString());
-        // System.out.println("Collision matrix: " + data.collisionMatrix.length);
+        // System.out.println("Collision matrix: " + data.collisionMatrix.size());
         // System.out.println("Is symmetric: " + GraphUtil.isSymmetric(data.collisionMatrix));
-        // // timer.printElapsed("数据解析");
         // // checkCoverage
         // List<SamplePoint> lessThan1 = new ArrayList<>();
         // List<SamplePoint> lessThan3 = new ArrayList<>();
@@ -1032,38 +7414,19 @@ public class AADS {
         // System.out.println("✅ Coverage Check Success!");
         // System.out.println("Covering pair less than 1: " + lessThan1.size() + " " + lessThan1);
         // System.out.println("Covering pair less than 3: " + lessThan3.size() + " " + lessThan3);
-        // Build the distance matrix
-        double[][] distanceMatrix = GraphUtil.buildDistanceMatrix(data.viewpoints, data.collisionMatrix);
-        // timer.printElapsed("距离矩阵计算");
-
-        // Select directions
-        Map<Viewpoint, Set<String>> selectedViewpoints = DirectionSelector.selectDirections(data.viewpoints, data.samplePoints);
-        // timer.printElapsed("方向选择");
-        // timer.printElapsed("样本覆盖检查");
-        // Build the tour
-        TourPlanner.TourResult finalTour = TourPlanner.buildTour(
-                data.viewpoints,
-                selectedViewpoints.keySet(),
-                new ArrayList<>(selectedViewpoints.keySet()),
-                distanceMatrix
-        );
-        // System.out.println("Route length: " + finalTour.totalDistance);
-        // timer.printElapsed("路径规划");
 
-        // Calculate precision
-        double finalPrecision = computeTotalPrecision(selectedViewpoints);
-        // System.out.println("Final precision: " + finalPrecision);
-        // timer.printElapsed("精度计算");
+        // Select directions and build the tour
+        Solver.Solution solution = Solver.solve(data, config);
 
         // Write the solution to file
-        SolutionBuilder.writeSolutionJson(
-                "solution.json",
-                finalTour,
-                selectedViewpoints,
-                finalPrecision,
-                finalTour.tour.size()
-        );
-        // validateTour(finalTour.tour, data.collisionMatrix);
+        Solver.write(solution, config.output);
+        if (cache != null) {
+            cache.store(SolutionCache.key(data.sourceHash, config), solution);
+        }
+        if (config.metrics != null) {
+            SolverMetrics.report(config.metrics);
+        }
+        // validateTour(solution.tour.tour, data.collisionMatrix);
     }
 
     // Calculate precision
@@ -1071,35 +7434,16 @@ public class AADS {
         final double[] totalPrecision = {0};
         selected.forEach((vp, dirIds) -> {
             for (String dirId : dirIds) {
-                totalPrecision[0] += vp.precision.get(dirId);
+                totalPrecision[0] += vp.store.precision(vp.index, dirId);
             }
         });
         return totalPrecision[0];
     }
 
     // Check the tour is valid
-    static void validateTour(List<Viewpoint> tour, int[][] cm) {
-        // Check if the tour exists and is not empty
-        if (tour == null || tour.isEmpty()) {
-            System.err.println("❌ Tour is empty.");
-
-        }
-
-        // Check if the tour is closed (first == last)
-        if (tour != null && !tour.get(0).equals(tour.get(tour.size() - 1))) {
-            System.err.println("❌ Tour is not closed (first != last).");
-
-        }
-
-        // Check if the tour is reachable
-        if (tour != null) {
-            for (int i = 0; i + 1 < tour.size(); i++) {
-                int a = tour.get(i).index;
-                int b = tour.get(i + 1).index;
-                if (cm[a][b] != 1) {
-                    System.err.printf("❌ Illegal transition: %d → %d (cm=%d)%n", a, b, cm[a][b]);
-                }
-            }
+    static void validateTour(List<Viewpoint> tour, CollisionMatrix cm) {
+        for (String problem : CoverageChecker.tourProblems(tour, cm)) {
+            System.err.println("❌ " + problem);
         }
         System.out.println("✅ Tour validation passed.");
         if (tour != null) {
@@ -0,0 +1,659 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntToDoubleFunction;
+
+// AADSTest : Equivalence checks between the optimised code paths and their plain counterparts
+// No test framework is needed: every check throws AssertionError at the first mismatch
+public class AADSTest {
+
+    public static void main(String[] args) throws Exception {
+        numbersMatchParseDouble();
+        packedMatchesDenseMatrix(true);
+        packedMatchesDenseMatrix(false);
+        kdTreeMatchesLinearScan(true);
+        kdTreeMatchesLinearScan(false);
+        improverKeepsPermutation(0.0);
+        improverKeepsPermutation(0.2);
+        snapshotMatchesParse();
+        patchedOracleMatchesRebuild(true);
+        patchedOracleMatchesRebuild(false);
+        shortestPathsMatchFloydWarshall(true);
+        shortestPathsMatchFloydWarshall(false);
+        ledgerMatchesRecount();
+        daemonFramesEveryResponse();
+        System.out.println("AADSTest: all checks passed");
+    }
+
+    // JsonReader reads every number to the same double as Double.parseDouble, fast path or not,
+    // from one array and from a channel whose reads end anywhere inside a number
+    static void numbersMatchParseDouble() throws IOException {
+        Random r = new Random(8);
+        List<String> numbers = new ArrayList<>(Arrays.asList("0", "-0", "0.0", "-0.0", "0e5", "1", "-1",
+                "9007199254740992", "9007199254740993", "123456789012345678901234", "1e22", "1e23", "1E-22",
+                "1e-23", "4.9e-324", "1.7976931348623157e308", "2.2250738585072014E-308", "0.1", "0.30000000000000004"));
+        for (int t = 0; t < 20000; t++) {
+            StringBuilder sb = new StringBuilder();
+            if (r.nextBoolean()) {
+                sb.append('-');
+            }
+            switch (r.nextInt(4)) {
+                case 0:
+                    sb.append(Double.toString(Double.longBitsToDouble(r.nextLong() & 0x7FFFFFFFFFFFFFFFL))
+                            .replace("Infinity", "1").replace("NaN", "2"));
+                    break;
+                case 1:
+                    sb.append(r.nextDouble() * Math.pow(10, r.nextInt(40) - 20));
+                    break;
+                default:
+                    // Up to 19 digits with the point and the exponent anywhere, around the exact mantissa limit
+                    String digits = Long.toString(Math.abs(r.nextLong() >> r.nextInt(63)));
+                    int point = r.nextInt(digits.length() + 1);
+                    sb.append(digits, 0, point == 0 ? digits.length() : point);
+                    if (point > 0 && point < digits.length()) {
+                        sb.append('.').append(digits, point, digits.length());
+                    }
+                    if (r.nextBoolean()) {
+                        sb.append(r.nextBoolean() ? 'e' : 'E').append(r.nextBoolean() ? "-" : r.nextBoolean() ? "+" : "")
+                                .append(r.nextInt(r.nextBoolean() ? 25 : 330));
+                    }
+                    break;
+            }
+            numbers.add(sb.toString());
+        }
+        byte[] json = ("[" + String.join(",", numbers) + "]").getBytes(StandardCharsets.UTF_8);
+        check(json.length > 1 << 17, "number array spans several reader windows");
+
+        checkNumbers(new JsonReader(json), numbers);
+        ReadableByteChannel source = Channels.newChannel(new ByteArrayInputStream(json));
+        Random chunks = new Random(9);
+        checkNumbers(new JsonReader(new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                ByteBuffer part = dst.slice().limit(Math.min(dst.remaining(), 1 + chunks.nextInt(20)));
+                int n = source.read(part);
+                if (n > 0) {
+                    dst.position(dst.position() + n);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        }), numbers);
+    }
+
+    private static void checkNumbers(JsonReader reader, List<String> numbers) {
+        reader.beginArray();
+        for (String number : numbers) {
+            check(reader.hasNext(), "number array ends early");
+            double value = reader.nextDouble();
+            check(Double.compare(value, Double.parseDouble(number)) == 0,
+                    "nextDouble(" + number + ") = " + value + ", parseDouble gives " + Double.parseDouble(number));
+        }
+        check(!reader.hasNext(), "number array ends late");
+        reader.endArray();
+    }
+
+    // CollisionMatrix answers every cell, row bitset and update like the int[][] it was packed from
+    static void packedMatchesDenseMatrix(boolean symmetric) {
+        Random r = new Random(1);
+        int n = 131;
+        int[][] m = randomMatrix(r, n, symmetric);
+        CollisionMatrix cm = CollisionMatrix.fromArray(m);
+        check(cm.size() == n, "matrix size");
+        check(cm.isSymmetric() == symmetric, "matrix symmetry");
+        checkMatrix(cm, m);
+
+        // set() writes both (i, j) and (j, i)
+        for (int t = 0; t < 200; t++) {
+            int i = r.nextInt(n);
+            int j = r.nextInt(n);
+            int v = r.nextInt(3) - 1;
+            cm.set(i, j, v);
+            m[i][j] = v;
+            m[j][i] = v;
+        }
+        checkMatrix(cm, m);
+
+        // Without any 0 above the diagonal there is no free edge, whatever the diagonal holds
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (cm.get(i, j) == 0) {
+                    cm.set(i, j, 1);
+                    m[i][j] = m[j][i] = 1;
+                }
+            }
+        }
+        checkMatrix(cm, m);
+    }
+
+    private static void checkMatrix(CollisionMatrix cm, int[][] m) {
+        int n = m.length;
+        long[] feasible = new long[CollisionMatrix.words(n)];
+        long[] blocked = new long[CollisionMatrix.words(n)];
+        boolean free = false;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                free |= cell(m[i][j]) == 0;
+            }
+        }
+        check(cm.hasFreeEdges() == free, "hasFreeEdges");
+        for (int i = 0; i < n; i++) {
+            cm.feasibleRow(i, feasible);
+            cm.blockedRow(i, blocked);
+            for (int j = 0; j < n; j++) {
+                int expected = cell(m[i][j]);
+                check(cm.get(i, j) == expected, "get(" + i + ", " + j + ")");
+                check(cm.isFeasible(i, j) == (expected == 1), "isFeasible(" + i + ", " + j + ")");
+                check(cm.isBlocked(i, j) == (expected == -1), "isBlocked(" + i + ", " + j + ")");
+                check(bit(feasible, j) == (expected == 1), "feasibleRow(" + i + ") column " + j);
+                check(bit(blocked, j) == (expected == -1), "blockedRow(" + i + ") column " + j);
+            }
+            cm.mirroredFeasibleRow(i, feasible);
+            cm.mirroredBlockedRow(i, blocked);
+            for (int j = 0; j < n; j++) {
+                int expected = cell(m[Math.min(i, j)][Math.max(i, j)]);
+                check(bit(feasible, j) == (expected == 1), "mirroredFeasibleRow(" + i + ") column " + j);
+                check(bit(blocked, j) == (expected == -1), "mirroredBlockedRow(" + i + ") column " + j);
+            }
+        }
+    }
+
+    // ViewpointKdTree finds the same nearest nodes as a scan over every remaining node, ties to the smaller id;
+    // with free edges (0.0 distances below the Euclidean one) only when it does not prune
+    static void kdTreeMatchesLinearScan(boolean prune) {
+        Random r = new Random(prune ? 4 : 6);
+        int n = 400;
+        double[] xs = new double[n], ys = new double[n], zs = new double[n];
+        for (int i = 0; i < n; i++) {
+            // A coarse grid, so that equal distances and ties occur
+            xs[i] = r.nextInt(20);
+            ys[i] = r.nextInt(20);
+            zs[i] = r.nextInt(5);
+        }
+        // 1 = Euclidean, -1 = INF, 0 = free edge
+        int[][] edge = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                int v = r.nextInt(5) == 0 ? -1 : !prune && r.nextInt(20) == 0 ? 0 : 1;
+                edge[i][j] = edge[j][i] = v;
+            }
+        }
+        ViewpointKdTree tree = new ViewpointKdTree(xs, ys, zs, prune);
+        boolean[] removed = new boolean[n];
+        int k = 8;
+        int[] nodes = new int[k];
+        double[] dists = new double[k];
+        for (int step = 0; step < n - 1; step++) {
+            int from = r.nextInt(n);
+            IntToDoubleFunction distanceTo = j -> edge[from][j] == -1 ? Double.POSITIVE_INFINITY
+                    : edge[from][j] == 0 ? 0.0 : Math.sqrt((xs[from] - xs[j]) * (xs[from] - xs[j])
+                    + (ys[from] - ys[j]) * (ys[from] - ys[j]) + (zs[from] - zs[j]) * (zs[from] - zs[j]));
+
+            // Brute force: every remaining reachable node other than from, by (distance, id)
+            List<Integer> expected = new ArrayList<>();
+            for (int j = 0; j < n; j++) {
+                if (j != from && !removed[j] && distanceTo.applyAsDouble(j) != Double.POSITIVE_INFINITY) {
+                    expected.add(j);
+                }
+            }
+            expected.sort((a, b) -> {
+                int c = Double.compare(distanceTo.applyAsDouble(a), distanceTo.applyAsDouble(b));
+                return c != 0 ? c : Integer.compare(a, b);
+            });
+
+            int nearest = tree.nearest(from, distanceTo);
+            check(nearest == (expected.isEmpty() ? -1 : expected.get(0)), "k-d tree nearest of " + from);
+            int found = tree.nearest(from, distanceTo, nodes, dists);
+            check(found == Math.min(k, expected.size()), "k-d tree neighbour count of " + from);
+            for (int i = 0; i < found; i++) {
+                check(nodes[i] == expected.get(i), "k-d tree neighbour " + i + " of " + from);
+                check(dists[i] == distanceTo.applyAsDouble(nodes[i]), "k-d tree neighbour distance " + i + " of " + from);
+            }
+
+            int victim = r.nextInt(n);
+            tree.remove(victim);
+            removed[victim] = true;
+        }
+    }
+
+    // TourImprover returns a permutation of its input, from the same start, and never a longer cycle
+    static void improverKeepsPermutation(double blocked) {
+        InstanceGenerator g = new InstanceGenerator();
+        g.viewpoints = 300;
+        g.blocked = blocked;
+        g.seed = 5;
+        InputData data = parse(g);
+        DistanceOracle dist = DistanceOracle.of("dense", data.viewpoints, data.collisionMatrix);
+
+        for (int round = 0; round < 3; round++) {
+            List<Viewpoint> cycle = new ArrayList<>(data.viewpoints.subList(1, data.viewpoints.size()));
+            Collections.shuffle(cycle, new Random(round));
+            cycle.add(0, data.viewpoints.get(0));
+            List<Viewpoint> improved = TourImprover.improve(cycle, dist, 200);
+
+            check(improved.size() == cycle.size(), "improved cycle size");
+            check(improved.get(0) == cycle.get(0), "improved cycle start");
+            Set<Viewpoint> seen = new HashSet<>(improved);
+            check(seen.size() == improved.size() && seen.containsAll(cycle), "improved cycle is a permutation");
+            double before = length(cycle, dist);
+            double after = length(improved, dist);
+            check(after <= before + 1e-6, "improved cycle is longer: " + after + " > " + before);
+        }
+    }
+
+    // A snapshot read back equals the parse it was written from, symmetric and asymmetric matrix alike
+    static void snapshotMatchesParse() throws Exception {
+        InstanceGenerator g = new InstanceGenerator();
+        g.viewpoints = 200;
+        g.seed = 9;
+        InputData parsed = parse(g);
+        byte[] hash = new byte[32];
+        Arrays.fill(hash, (byte) 7);
+        checkSnapshot(parsed, hash);
+
+        int n = parsed.collisionMatrix.size();
+        int[][] m = randomMatrix(new Random(2), n, false);
+        InputData asymmetric = new InputData(parsed.viewpoints, parsed.samplePoints, parsed.directions,
+                CollisionMatrix.fromArray(m), parsed.lambda, parsed.store, parsed.coverage);
+        checkSnapshot(asymmetric, hash);
+    }
+
+    private static void checkSnapshot(InputData parsed, byte[] hash) throws Exception {
+        Path dir = Files.createTempDirectory("aads-test");
+        Path file = dir.resolve("instance.snap");
+        try {
+            InstanceSnapshot.write(parsed, hash, file);
+            check(Arrays.equals(InstanceSnapshot.sourceHash(file), hash), "snapshot source hash");
+            InputData read = InstanceSnapshot.read(file);
+
+            check(Double.compare(read.lambda, parsed.lambda) == 0, "snapshot lambda");
+            check(read.directions.size() == parsed.directions.size(), "snapshot direction count");
+            for (int d = 0; d < parsed.directions.size(); d++) {
+                Direction a = parsed.directions.get(d);
+                Direction b = read.directions.get(d);
+                check(a.Id.equals(b.Id) && a.x == b.x && a.y == b.y && a.z == b.z, "snapshot direction " + a.Id);
+            }
+            check(read.viewpoints.size() == parsed.viewpoints.size(), "snapshot viewpoint count");
+            for (int v = 0; v < parsed.viewpoints.size(); v++) {
+                Viewpoint a = parsed.viewpoints.get(v);
+                Viewpoint b = read.viewpoints.get(v);
+                check(a.id.equals(b.id) && a.index == b.index && a.isMandatory == b.isMandatory
+                        && a.x == b.x && a.y == b.y && a.z == b.z, "snapshot viewpoint " + a.id);
+            }
+            ViewpointStore sa = parsed.store;
+            ViewpointStore sb = read.store;
+            check(sa.size == sb.size && Arrays.equals(sa.directionIds, sb.directionIds), "snapshot store shape");
+            check(Arrays.equals(sa.xs, sb.xs) && Arrays.equals(sa.ys, sb.ys) && Arrays.equals(sa.zs, sb.zs),
+                    "snapshot store coordinates");
+            check(Arrays.equals(sa.mandatory, sb.mandatory), "snapshot mandatory flags");
+            check(Arrays.equals(sa.precision, sb.precision), "snapshot precision table");
+
+            check(read.samplePoints.size() == parsed.samplePoints.size(), "snapshot sample count");
+            for (int s = 0; s < parsed.samplePoints.size(); s++) {
+                SamplePoint a = parsed.samplePoints.get(s);
+                SamplePoint b = read.samplePoints.get(s);
+                check(a.id.equals(b.id) && a.x == b.x && a.y == b.y && a.z == b.z, "snapshot sample " + a.id);
+            }
+            CoverageIndex ca = parsed.coverage;
+            CoverageIndex cb = read.coverage;
+            check(Arrays.equals(ca.sampleStart, cb.sampleStart) && Arrays.equals(ca.samplePairs, cb.samplePairs)
+                    && Arrays.equals(ca.pairStart, cb.pairStart) && Arrays.equals(ca.pairSamples, cb.pairSamples),
+                    "snapshot coverage index");
+
+            CollisionMatrix ma = parsed.collisionMatrix;
+            CollisionMatrix mb = read.collisionMatrix;
+            check(ma.size() == mb.size() && ma.isSymmetric() == mb.isSymmetric(), "snapshot matrix shape");
+            for (int i = 0; i < ma.size(); i++) {
+                for (int j = 0; j < ma.size(); j++) {
+                    check(ma.get(i, j) == mb.get(i, j), "snapshot matrix cell (" + i + ", " + j + ")");
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    // Every oracle patched row by row answers like one built from scratch on the final matrix
+    static void patchedOracleMatchesRebuild(boolean symmetric) {
+        Random r = new Random(3);
+        int n = 150;
+        int[][] m = randomMatrix(r, n, symmetric);
+        CollisionMatrix cm = CollisionMatrix.fromArray(m);
+        List<Viewpoint> vps = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            vps.add(new Viewpoint("v" + (i + 1), i == 0, r.nextDouble() * 100, r.nextDouble() * 100,
+                    r.nextDouble() * 100, new HashMap<>()));
+        }
+        String[] kinds = {"dense", "float", "lazy"};
+        DistanceOracle[] patched = new DistanceOracle[kinds.length];
+        for (int k = 0; k < kinds.length; k++) {
+            patched[k] = DistanceOracle.of(kinds[k], vps, cm);
+            // Touch some rows first so that the patch has cached rows to update
+            for (int i = 0; i < n; i += 7) {
+                patched[k].row(i);
+            }
+        }
+
+        for (int t = 0; t < 10; t++) {
+            int i = r.nextInt(n);
+            for (int j = 0; j < n; j++) {
+                int v = r.nextInt(3) - 1;
+                cm.set(i, j, v);
+                m[i][j] = v;
+                m[j][i] = v;
+            }
+            for (DistanceOracle oracle : patched) {
+                oracle.patch(i, vps, cm);
+            }
+        }
+        checkMatrix(cm, m);
+
+        CollisionMatrix fresh = CollisionMatrix.fromArray(m);
+        for (int k = 0; k < kinds.length; k++) {
+            DistanceOracle rebuilt = DistanceOracle.of(kinds[k], vps, fresh);
+            for (int i = 0; i < n; i++) {
+                double[] row = patched[k].row(i);
+                for (int j = 0; j < n; j++) {
+                    double expected = rebuilt.get(i, j);
+                    check(Double.compare(patched[k].get(i, j), expected) == 0,
+                            kinds[k] + " get(" + i + ", " + j + ") after patch");
+                    check(Double.compare(row[j], expected) == 0, kinds[k] + " row(" + i + ")[" + j + "] after patch");
+                }
+            }
+        }
+    }
+
+    // ShortestPathTable finds the Floyd-Warshall distances over its node subset, with paths that add up to them
+    static void shortestPathsMatchFloydWarshall(boolean symmetric) {
+        Random r = new Random(symmetric ? 10 : 11);
+        int n = 120;
+        int[][] m = randomMatrix(r, n, symmetric);
+        // Mostly blocked, so that detours take several hops and some nodes are cut off
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i != j && r.nextInt(4) != 0) {
+                    m[i][j] = 1;
+                }
+            }
+        }
+        List<Viewpoint> vps = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            vps.add(new Viewpoint("v" + (i + 1), i == 0, r.nextDouble() * 100, r.nextDouble() * 100,
+                    r.nextDouble() * 100, new HashMap<>()));
+        }
+        DistanceOracle dist = DistanceOracle.of("dense", vps, CollisionMatrix.fromArray(m));
+
+        List<Integer> subset = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (r.nextInt(3) != 0) {
+                subset.add(i);
+            }
+        }
+        int[] nodes = subset.stream().mapToInt(Integer::intValue).toArray();
+        int k = nodes.length;
+        double[][] fw = new double[k][k];
+        for (int a = 0; a < k; a++) {
+            for (int b = 0; b < k; b++) {
+                fw[a][b] = a == b ? 0.0 : dist.get(nodes[a], nodes[b]);
+            }
+        }
+        for (int c = 0; c < k; c++) {
+            for (int a = 0; a < k; a++) {
+                for (int b = 0; b < k; b++) {
+                    if (fw[a][c] + fw[c][b] < fw[a][b]) {
+                        fw[a][b] = fw[a][c] + fw[c][b];
+                    }
+                }
+            }
+        }
+
+        Map<Integer, List<Integer>> targets = new HashMap<>();
+        for (int a = 0; a < k; a += 3) {
+            List<Integer> list = new ArrayList<>();
+            for (int b = 0; b < k; b++) {
+                if (b != a && r.nextInt(4) == 0) {
+                    list.add(nodes[b]);
+                }
+            }
+            targets.put(nodes[a], list);
+        }
+        ShortestPathTable table = new ShortestPathTable(dist, nodes, targets);
+        for (int a = 0; a < k; a++) {
+            List<Integer> list = targets.get(nodes[a]);
+            if (list == null) {
+                continue;
+            }
+            for (int to : list) {
+                int b = subset.indexOf(to);
+                double expected = fw[a][b];
+                double found = table.distance(nodes[a], to);
+                int[] path = table.path(nodes[a], to);
+                String what = "shortest path " + nodes[a] + " -> " + to;
+                if (expected == Double.POSITIVE_INFINITY) {
+                    check(found == Double.POSITIVE_INFINITY && path == null, what + " is unreachable");
+                    check(table.settled(nodes[a], to) == 0, what + " settled count");
+                    continue;
+                }
+                check(Math.abs(found - expected) <= 1e-9 * Math.max(1, expected), what + ": " + found + " != " + expected);
+                check(path != null && path[0] == nodes[a] && path[path.length - 1] == to, what + " ends");
+                check(table.settled(nodes[a], to) > 0, what + " settled count");
+                double sum = 0;
+                for (int h = 0; h + 1 < path.length; h++) {
+                    check(subset.contains(path[h + 1]), what + " leaves the node subset");
+                    sum += dist.get(path[h], path[h + 1]);
+                }
+                check(sum == found, what + " path length " + sum + " != " + found);
+            }
+        }
+    }
+
+    // CoverageLedger counts after any sequence of adds and removes equal a recount, and a plain count, of the selection
+    static void ledgerMatchesRecount() {
+        InstanceGenerator g = new InstanceGenerator();
+        g.viewpoints = 150;
+        g.seed = 12;
+        InputData data = parse(g);
+        CoverageIndex index = data.coverage;
+        CoverageLedger ledger = new CoverageLedger(index, data.store);
+        Random r = new Random(13);
+        boolean[] selected = new boolean[index.numPairs];
+        for (int t = 0; t < 20000; t++) {
+            int pair = r.nextInt(index.numPairs);
+            // Removals a little less likely, so that the selection grows through every cover level
+            if (r.nextInt(5) < 2) {
+                check(ledger.remove(pair) == selected[pair], "remove(" + pair + ") result");
+                selected[pair] = false;
+            } else {
+                check(ledger.add(pair) == !selected[pair], "add(" + pair + ") result");
+                selected[pair] = true;
+            }
+            if (t % 2000 == 1999) {
+                checkLedger(ledger, index, data.store, selected);
+            }
+        }
+        checkLedger(ledger, index, data.store, selected);
+    }
+
+    private static void checkLedger(CoverageLedger ledger, CoverageIndex index, ViewpointStore store, boolean[] selected) {
+        long[] bits = new long[CollisionMatrix.words(index.numPairs)];
+        int[] cover = new int[index.numSamples];
+        int pairs = 0;
+        for (int p = 0; p < index.numPairs; p++) {
+            if (selected[p]) {
+                bits[p >>> 6] |= 1L << p;
+                pairs++;
+                for (int k = index.pairStart[p]; k < index.pairStart[p + 1]; k++) {
+                    cover[index.pairSamples[k]]++;
+                }
+            }
+        }
+        CoverageLedger recounted = new CoverageLedger(index, store, bits);
+        check(ledger.selectedPairs() == pairs && recounted.selectedPairs() == pairs, "ledger selected pairs");
+        int shortSamples = 0;
+        long total = 0;
+        for (int s = 0; s < index.numSamples; s++) {
+            check(ledger.cover(s) == cover[s] && recounted.cover(s) == cover[s], "ledger cover of sample " + s);
+            check(ledger.required(s) == recounted.required(s), "ledger required of sample " + s);
+            shortSamples += cover[s] < ledger.required(s) ? 1 : 0;
+            total += cover[s];
+        }
+        check(ledger.shortSamples() == shortSamples && recounted.shortSamples() == shortSamples, "ledger short samples");
+        check(Arrays.equals(ledger.histogram(), recounted.histogram()), "ledger histogram");
+        check(ledger.averageCover() == (double) total / index.numSamples
+                && recounted.averageCover() == ledger.averageCover(), "ledger average cover");
+        check(ledger.minCover() == recounted.minCover() && ledger.maxCover() == recounted.maxCover(), "ledger cover range");
+        for (int level = 0; level <= CoverageLedger.REQUIRED + 1; level++) {
+            check(ledger.samplesBelow(level) == recounted.samplesBelow(level), "ledger samples below " + level);
+        }
+    }
+
+    // SolverDaemon frames one response per non-blank line, "ok" with the solution a direct solve writes or
+    // "error" with the message, whatever the read boundaries and without a final newline
+    static void daemonFramesEveryResponse() throws IOException {
+        SolverConfig config = SolverConfig.parse(new String[0]);
+        byte[] first = InstanceGenerator.generate(60, 14);
+        byte[] second = InstanceGenerator.generate(40, 15);
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        requests.write("\n  \r\n".getBytes(StandardCharsets.US_ASCII));
+        requests.write(oneLine(first));
+        requests.write("\n{\"directions\": [\n\t\n".getBytes(StandardCharsets.US_ASCII));
+        requests.write(oneLine(second));
+
+        ReadableByteChannel source = Channels.newChannel(new ByteArrayInputStream(requests.toByteArray()));
+        Random chunks = new Random(16);
+        ReadableByteChannel in = new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                ByteBuffer part = dst.slice().limit(Math.min(dst.remaining(), 1 + chunks.nextInt(4096)));
+                int n = source.read(part);
+                if (n > 0) {
+                    dst.position(dst.position() + n);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        new SolverDaemon(config).serve(in, Channels.newChannel(responses));
+
+        byte[] out = responses.toByteArray();
+        int[] at = {0};
+        check(Arrays.equals(frame(out, at, "ok"), solve(first, config)), "daemon response to the first instance");
+        check(frame(out, at, "error").length > 0, "daemon error message");
+        check(Arrays.equals(frame(out, at, "ok"), solve(second, config)), "daemon response to the second instance");
+        check(at[0] == out.length, "daemon wrote " + (out.length - at[0]) + " bytes past the last response");
+    }
+
+    private static byte[] oneLine(byte[] json) {
+        byte[] line = json.clone();
+        for (int k = 0; k < line.length; k++) {
+            if (line[k] == '\n' || line[k] == '\r') {
+                line[k] = ' ';
+            }
+        }
+        return line;
+    }
+
+    // The body of the response at at[0], which must have the given status; at[0] moves past it
+    private static byte[] frame(byte[] out, int[] at, String status) {
+        int end = at[0];
+        while (end < out.length && out[end] != '\n') {
+            end++;
+        }
+        check(end < out.length, "daemon response header is complete");
+        String[] header = new String(out, at[0], end - at[0], StandardCharsets.US_ASCII).split(" ");
+        check(header.length == 2 && header[0].equals(status), "daemon response status " + header[0] + ", expected " + status);
+        int length = Integer.parseInt(header[1]);
+        check(end + 1 + length <= out.length, "daemon response body is complete");
+        at[0] = end + 1 + length;
+        return Arrays.copyOfRange(out, end + 1, at[0]);
+    }
+
+    private static byte[] solve(byte[] json, SolverConfig config) {
+        Solver.Solution solution = Solver.solve(JsonParser.parse(new JsonReader(json)), config);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SolutionWriter writer = SolutionWriter.to(Channels.newChannel(out))) {
+            writer.write(solution.tour, solution.selected, solution.precision, solution.tour.tour.size());
+        }
+        return out.toByteArray();
+    }
+
+    private static InputData parse(InstanceGenerator g) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            g.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return JsonParser.parse(new JsonReader(out.toByteArray()));
+    }
+
+    // Cells in {-1, 0, 1} plus some other values, which the matrix reads as 0
+    private static int[][] randomMatrix(Random r, int n, boolean symmetric) {
+        int[][] m = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                int v = r.nextInt(10) == 0 ? 2 : r.nextInt(3) - 1;
+                m[i][j] = v;
+                m[j][i] = symmetric || r.nextInt(10) != 0 ? v : -v;
+            }
+        }
+        return m;
+    }
+
+    private static int cell(int value) {
+        return value == 1 || value == -1 ? value : 0;
+    }
+
+    private static boolean bit(long[] bits, int j) {
+        return (bits[j >>> 6] & (1L << j)) != 0;
+    }
+
+    // Length of a closed cycle given without its closing node
+    private static double length(List<Viewpoint> cycle, DistanceOracle dist) {
+        double total = 0;
+        for (int i = 0; i < cycle.size(); i++) {
+            total += dist.get(cycle.get(i).index, cycle.get((i + 1) % cycle.size()).index);
+        }
+        return total;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}